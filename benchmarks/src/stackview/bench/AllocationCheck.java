@@ -0,0 +1,57 @@
+package stackview.bench;
+
+import java.lang.management.ManagementFactory;
+
+import com.sun.management.ThreadMXBean;
+
+import stackview.bench.SimulatorBenchmark.History;
+
+/**
+ * Fails if simulating without history allocates, the gc.alloc.rate.norm of SimulatorBenchmark with history UNTRACKED. Each method is warmed
+ * up and then stepped with the bytes this thread allocated counted around the loop only, so unlike -prof gc the harness adds nothing and the
+ * check can be for exactly 0. Bound to the verify phase of the benchmarks build, or run the class directly with any methods as arguments.
+ */
+public class AllocationCheck {
+
+	private static final int WARMUP_STEPS = 2_000_000;
+	private static final int MEASURED_STEPS = 1_000_000;
+	// A measurement that allocates is retried, the first ones can catch the compiler swapping in new code mid loop.
+	private static final int ATTEMPTS = 3;
+
+	public static void main(String[] args) throws Exception {
+		String[] methods = args.length == 0 ? new String[] { "loop", "math", "synthetic" } : args;
+		ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+		// The first call can allocate while the bean sets itself up.
+		threads.getCurrentThreadAllocatedBytes();
+		StringBuilder failures = new StringBuilder();
+		for (String method : methods) {
+			SimulatorBenchmark benchmark = new SimulatorBenchmark();
+			benchmark.method = method;
+			benchmark.history = History.UNTRACKED;
+			benchmark.syntheticSize = 3000;
+			benchmark.setup();
+			for (int i = 0; i < WARMUP_STEPS; i++) {
+				benchmark.step();
+			}
+			long bytes = 0;
+			for (int attempt = 0; attempt < ATTEMPTS; attempt++) {
+				long before = threads.getCurrentThreadAllocatedBytes();
+				for (int i = 0; i < MEASURED_STEPS; i++) {
+					benchmark.step();
+				}
+				bytes = threads.getCurrentThreadAllocatedBytes() - before;
+				if (bytes == 0) {
+					break;
+				}
+			}
+			System.out.println(method + " UNTRACKED: " + bytes + " bytes in " + MEASURED_STEPS + " steps");
+			if (bytes > 0) {
+				failures.append(' ').append(method);
+			}
+		}
+		if (failures.length() > 0) {
+			throw new IllegalStateException("Simulating without history allocates for" + failures);
+		}
+	}
+
+}
@@ -0,0 +1,140 @@
+package stackview.bench;
+
+import static org.objectweb.asm.Opcodes.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import stackview.InstructionSpec;
+import stackview.cli.ClassSource;
+import stackview.cli.MethodAnalysis;
+
+/**
+ * The cost of opening classes, over a corpus read from the running JDK so no download is needed. Each operation takes the next class or method
+ * of the corpus in turn and wraps around at the end, so the scores are an average over the whole corpus.
+ * <p>
+ * readClass is ClassReader to ClassNode only, parseClass adds an InstructionSpec for every method as the CLI does, and buildSpec is a single
+ * InstructionSpec from an already read method.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Thread)
+public class ParseBenchmark {
+
+	// Anything ClassSource opens, a jrt:/ module by default.
+	@Param({ "jrt:/java.base" })
+	public String corpus;
+
+	// Classes are taken evenly spaced through the sorted corpus up to this many, 0 for all of them.
+	@Param({ "2000" })
+	public int maxClasses;
+
+	// ClassReader flags, any of EXPAND_FRAMES, SKIP_DEBUG and SKIP_FRAMES joined by |, or 0.
+	@Param({ "0", "EXPAND_FRAMES", "SKIP_DEBUG", "EXPAND_FRAMES|SKIP_DEBUG" })
+	public String flags;
+
+	int parsingOptions;
+	List<byte[]> classes = new ArrayList<>();
+	List<MethodNode> methods = new ArrayList<>();
+	int nextClass;
+	int nextMethod;
+
+	@Setup
+	public void setup() throws IOException {
+		parsingOptions = parseFlags(flags);
+		try (ClassSource source = ClassSource.open(corpus)) {
+			List<Path> paths = source.classes();
+			int stride = maxClasses <= 0 ? 1 : Math.max(1, paths.size() / maxClasses);
+			for (int i = 0; i < paths.size() && (maxClasses <= 0 || classes.size() < maxClasses); i += stride) {
+				classes.add(source.read(paths.get(i)));
+			}
+		}
+		if (classes.isEmpty()) {
+			throw new IllegalStateException("No classes in " + corpus);
+		}
+		for (byte[] bytes : classes) {
+			for (MethodNode mn : read(bytes).methods) {
+				if (MethodAnalysis.hasCode(mn)) {
+					methods.add(mn);
+				}
+			}
+		}
+	}
+
+	@Benchmark
+	public ClassNode readClass() {
+		return read(nextClass());
+	}
+
+	@Benchmark
+	public int parseClass() {
+		int instructions = 0;
+		for (MethodNode mn : read(nextClass()).methods) {
+			if (MethodAnalysis.hasCode(mn)) {
+				instructions += spec(mn).alters.size();
+			}
+		}
+		return instructions;
+	}
+
+	@Benchmark
+	public InstructionSpec buildSpec() {
+		MethodNode mn = methods.get(nextMethod);
+		nextMethod = nextMethod + 1 == methods.size() ? 0 : nextMethod + 1;
+		return spec(mn);
+	}
+
+	private byte[] nextClass() {
+		byte[] bytes = classes.get(nextClass);
+		nextClass = nextClass + 1 == classes.size() ? 0 : nextClass + 1;
+		return bytes;
+	}
+
+	private ClassNode read(byte[] bytes) {
+		ClassNode cn = new ClassNode();
+		new ClassReader(bytes).accept(cn, parsingOptions);
+		return cn;
+	}
+
+	private static InstructionSpec spec(MethodNode mn) {
+		InstructionSpec spec = new InstructionSpec(mn.name, mn.desc, (mn.access & ACC_STATIC) != 0);
+		mn.accept(spec);
+		return spec;
+	}
+
+	static int parseFlags(String flags) {
+		int options = 0;
+		for (String flag : flags.split("\\|")) {
+			options |= switch (flag.trim()) {
+				case "0" -> 0;
+				case "EXPAND_FRAMES" -> ClassReader.EXPAND_FRAMES;
+				case "SKIP_DEBUG" -> ClassReader.SKIP_DEBUG;
+				case "SKIP_FRAMES" -> ClassReader.SKIP_FRAMES;
+				default -> throw new IllegalArgumentException("Unknown parse flag " + flag);
+			};
+		}
+		return options;
+	}
+
+}
@@ -0,0 +1,182 @@
+package stackview.bench;
+
+import static org.objectweb.asm.Opcodes.*;
+
+import java.io.IOException;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.IincInsnNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.IntInsnNode;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.VarInsnNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import stackview.InstructionSpec;
+import stackview.Simulator;
+
+/**
+ * Simulator throughput, one operation being one instruction simulated, so the score is steps per second. Run with -prof gc and
+ * gc.alloc.rate.norm is the bytes allocated per step.
+ * <p>
+ * A run that finishes, errors or reaches a branch on an unknown value resets the simulator to the method entry, so the cost of starting a run
+ * is spread over its steps. AllocationCheck runs the same steps and fails if the UNTRACKED ones allocate.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class SimulatorBenchmark {
+
+	public static enum History {
+
+		// Every value keeps the instructions it came from, as the GUI does.
+		TRACKED,
+		// Tracked, but trimmed to the last instruction after every jump, as the GUI does with History unchecked.
+		PURGED,
+		// No history at all, as the CLI does unless asked to keep it.
+		UNTRACKED;
+
+	}
+
+	// Methods of Example, or synthetic for a generated method with a long loop body.
+	@Param({ "loop", "longLoop", "arrays", "math", "tableSwitch", "synthetic" })
+	public String method;
+
+	@Param({ "TRACKED", "PURGED", "UNTRACKED" })
+	public History history;
+
+	// Instructions in the loop body of the synthetic method.
+	@Param({ "3000" })
+	public int syntheticSize;
+
+	InstructionSpec spec;
+	Simulator sim;
+
+	@Setup
+	public void setup() throws IOException {
+		MethodNode mn = method.equals("synthetic") ? synthetic(syntheticSize) : exampleMethod(method);
+		spec = new InstructionSpec(mn.name, mn.desc, (mn.access & ACC_STATIC) != 0);
+		mn.accept(spec);
+		restart();
+	}
+
+	@Benchmark
+	public Simulator step() {
+		for (int restarts = 0;; restarts++) {
+			while (!sim.state.done) {
+				if (sim.state == Simulator.State.PUSH) {
+					sim.performPushes();
+					return sim;
+				}
+				if (sim.state == Simulator.State.INIT) {
+					sim.initLocals();
+				} else if (sim.state == Simulator.State.POP) {
+					sim.performPops();
+				} else {
+					Optional<Label> target = sim.getExpectedJumpTarget();
+					if (target == null) {
+						break;
+					}
+					sim.performJump(target.orElse(null));
+					if (history == History.PURGED) {
+						sim.purgeHistory();
+					}
+				}
+			}
+			if (restarts > 0) {
+				throw new IllegalStateException(method + " ends without simulating an instruction.");
+			}
+			restart();
+		}
+	}
+
+	private void restart() {
+		if (sim == null) {
+			sim = new Simulator(spec);
+			sim.errorSink = Simulator.ErrorSink.IGNORE;
+			sim.trackHistory = history != History.UNTRACKED;
+		} else {
+			sim.reset();
+		}
+	}
+
+	static MethodNode exampleMethod(String name) throws IOException {
+		ClassNode cn = new ClassNode();
+		new ClassReader("Example").accept(cn, 0);
+		for (MethodNode mn : cn.methods) {
+			if (mn.name.equals(name)) {
+				return mn;
+			}
+		}
+		throw new IllegalArgumentException("Example has no method " + name);
+	}
+
+	/**
+	 * A static ()J method that runs a loop ten times whose body is about size instructions of int, long and array arithmetic, all on known values.
+	 */
+	static MethodNode synthetic(int size) {
+		MethodNode mn = new MethodNode(ACC_PUBLIC | ACC_STATIC, "synthetic", "()J", null, null);
+		InsnList insns = mn.instructions;
+		LabelNode loop = new LabelNode();
+		LabelNode end = new LabelNode();
+		// long sum = 0; int i = 0; int[] a = new int[8];
+		insns.add(new InsnNode(LCONST_0));
+		insns.add(new VarInsnNode(LSTORE, 0));
+		insns.add(new InsnNode(ICONST_0));
+		insns.add(new VarInsnNode(ISTORE, 2));
+		insns.add(new IntInsnNode(BIPUSH, 8));
+		insns.add(new IntInsnNode(NEWARRAY, T_INT));
+		insns.add(new VarInsnNode(ASTORE, 3));
+		insns.add(loop);
+		insns.add(new VarInsnNode(ILOAD, 2));
+		insns.add(new IntInsnNode(BIPUSH, 10));
+		insns.add(new JumpInsnNode(IF_ICMPGE, end));
+		for (int i = 0; i < size; i += 15) {
+			// int t = i * 3; sum += t; a[i & 7] = t;
+			insns.add(new VarInsnNode(ILOAD, 2));
+			insns.add(new InsnNode(ICONST_3));
+			insns.add(new InsnNode(IMUL));
+			insns.add(new VarInsnNode(ISTORE, 4));
+			insns.add(new VarInsnNode(LLOAD, 0));
+			insns.add(new VarInsnNode(ILOAD, 4));
+			insns.add(new InsnNode(I2L));
+			insns.add(new InsnNode(LADD));
+			insns.add(new VarInsnNode(LSTORE, 0));
+			insns.add(new VarInsnNode(ALOAD, 3));
+			insns.add(new VarInsnNode(ILOAD, 2));
+			insns.add(new IntInsnNode(BIPUSH, 7));
+			insns.add(new InsnNode(IAND));
+			insns.add(new VarInsnNode(ILOAD, 4));
+			insns.add(new InsnNode(IASTORE));
+		}
+		insns.add(new IincInsnNode(2, 1));
+		insns.add(new JumpInsnNode(GOTO, loop));
+		insns.add(end);
+		insns.add(new VarInsnNode(LLOAD, 0));
+		insns.add(new InsnNode(LRETURN));
+		mn.maxStack = 4;
+		mn.maxLocals = 5;
+		return mn;
+	}
+
+}
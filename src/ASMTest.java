@@ -53,7 +53,7 @@ public class ASMTest {
 		for (MethodNode mn : cn.methods) {
 			System.out.println(((mn.access & ACC_STATIC) != 0 ? "static " : "") + mn.name + mn.desc);
 			//			if (mn.name.equals("test")) {
-			InstructionSpec spec = new InstructionSpec(mn.desc, (mn.access & ACC_STATIC) != 0);
+			InstructionSpec spec = new InstructionSpec(mn.name, mn.desc, (mn.access & ACC_STATIC) != 0);
 			mn.accept(spec);
 			Simulator sim = new Simulator(spec);
 			sim.initLocals();
@@ -0,0 +1,242 @@
+package stackview;
+
+import static org.objectweb.asm.Opcodes.*;
+
+import java.util.BitSet;
+
+import org.objectweb.asm.tree.TryCatchBlockNode;
+
+import stackview.SimulationError.Code;
+import stackview.Simulator.State;
+
+/**
+ * Runs every instruction of a method over the merge of all states that can reach it, instead of following a single path like Simulator does.
+ * Successors are every jump target, the next instruction and the handlers of every try block covering an instruction, and instructions are
+ * revisited until no entry state changes. Merged values keep their type and the history of the first state that reached them, known values that
+ * disagree become unknown and locals whose types disagree become empty.
+ */
+public class DataflowAnalysis {
+
+	public final InstructionSpec insts;
+	// Errors are kept per instruction by getError, so by default they are not logged too.
+	public Simulator.ErrorSink errorSink = Simulator.ErrorSink.IGNORE;
+
+	private final Simulator[] entryStates;
+	private final String[] errors;
+	private int steps;
+
+	public DataflowAnalysis(InstructionSpec insts) {
+		this.insts = insts;
+		this.entryStates = new Simulator[insts.alters.size()];
+		this.errors = new String[insts.alters.size()];
+	}
+
+	public DataflowAnalysis run() {
+		if (entryStates.length == 0) {
+			return this;
+		}
+		Simulator entry = new Simulator(insts);
+		entry.errorSink = errorSink;
+		entry.initLocals();
+		if (entry.state.done) {
+			errors[0] = entry.errorMessage;
+			return this;
+		}
+		entryStates[0] = entry;
+		BitSet pending = new BitSet(entryStates.length);
+		pending.set(0);
+		// Always take the lowest pending instruction so straight line code is visited in order and a loop body is finished before its exit.
+		for (int i = pending.nextSetBit(0); i >= 0; i = pending.nextSetBit(0)) {
+			pending.clear(i);
+			steps++;
+			errors[i] = null;
+			Simulator sim = new Simulator(entryStates[i]);
+			sim.performPops();
+			if (sim.state == State.PUSH) {
+				sim.performPushes();
+			}
+			if (insts.alters.get(i).node.getOpcode() >= 0) {
+				for (TryCatchBlockNode tryCatch : insts.getActiveCatches(i)) {
+					int handler = insts.indexOf(tryCatch.handler.getLabel());
+					flow(i, handler, caught(entryStates[i], tryCatch), pending);
+					if (sim.state == State.JUMP) {
+						flow(i, handler, caught(sim, tryCatch), pending);
+					}
+				}
+			}
+			if (sim.state == State.ERRORED) {
+				errors[i] = sim.errorMessage;
+				continue;
+			}
+			if (sim.state != State.JUMP) {
+				continue;
+			}
+			try {
+				for (int target : successors(sim, i)) {
+					flow(i, target, sim, pending);
+				}
+			} catch (Exception e) {
+				errors[i] = e.getMessage();
+			}
+		}
+		return this;
+	}
+
+	public boolean isReachable(int index) {
+		return entryStates[index] != null;
+	}
+
+	/**
+	 * The merged state before the instruction runs, null if no path reaches it. The returned simulator is shared and must be copied before stepping it.
+	 */
+	public Simulator getEntryState(int index) {
+		return entryStates[index];
+	}
+
+	/**
+	 * The error the instruction raised on its last visit, null if it ran cleanly.
+	 */
+	public String getError(int index) {
+		return errors[index];
+	}
+
+	public int getSteps() {
+		return steps;
+	}
+
+	private int[] successors(Simulator sim, int index) {
+		StackAlter alter = insts.alters.get(index);
+		switch (alter.node.getOpcode()) {
+			case RET -> {
+				var jumps = sim.getJumps();
+				int[] targets = new int[jumps.size()];
+				for (int i = 0; i < targets.length; i++) {
+					targets[i] = insts.indexOf(jumps.get(i));
+				}
+				return targets;
+			}
+			case ATHROW -> {
+				// Handlers are followed for every instruction in a try block.
+				return new int[0];
+			}
+			case GOTO, JSR, TABLESWITCH, LOOKUPSWITCH -> {
+				return alter.jumpIndices;
+			}
+			default -> {
+				if (index + 1 >= entryStates.length) {
+					return alter.jumpIndices;
+				}
+				int[] targets = new int[alter.jumpIndices.length + 1];
+				System.arraycopy(alter.jumpIndices, 0, targets, 0, alter.jumpIndices.length);
+				targets[alter.jumpIndices.length] = index + 1;
+				return targets;
+			}
+		}
+	}
+
+	private Simulator caught(Simulator from, TryCatchBlockNode tryCatch) {
+		Simulator sim = new Simulator(from);
+		sim.stack.clear();
+		sim.stack.push(new EntryValue(EntryType.REFERENCE, from.instruction, KnownValue.reference(tryCatch.type == null ? "java/lang/Throwable" : tryCatch.type, true)));
+		return sim;
+	}
+
+	private void flow(int from, int target, Simulator out, BitSet pending) {
+		Simulator existing = entryStates[target];
+		if (existing == null) {
+			Simulator in = new Simulator(out);
+			in.restore(target, State.POP, null, out.sharePopped());
+			entryStates[target] = in;
+			pending.set(target);
+			return;
+		}
+		try {
+			if (merge(existing, out)) {
+				pending.set(target);
+			}
+		} catch (SimulationException e) {
+			errors[from] = "Cannot merge into instruction " + target + ": " + e.getMessage();
+		}
+	}
+
+	/**
+	 * Merges the incoming state into the existing one, returning true if the existing state changed. Throws SimulationException if the states
+	 * cannot be merged.
+	 */
+	static boolean merge(Simulator existing, Simulator incoming) {
+		boolean changed = false;
+		Stack stack = existing.stack;
+		if (stack.getSize() != incoming.stack.getSize()) {
+			throw new SimulationException(Code.STACK_TYPE, "Stack height " + stack.getSize() + " != " + incoming.stack.getSize());
+		}
+		for (int i = 0; i < stack.getSize(); i++) {
+			EntryType type = stack.getType(i);
+			if (type != incoming.stack.getType(i)) {
+				throw new SimulationException(Code.STACK_TYPE, "Stack entry " + i + " is " + type + " and " + incoming.stack.getType(i));
+			}
+			if (isSecondHalf(type)) {
+				continue;
+			}
+			EntryValue merged = mergeValue(stack.entries.get(i), incoming.stack.entries.get(i));
+			if (merged != null) {
+				stack.set(i, merged);
+				changed = true;
+			}
+		}
+		LocalVariables locals = existing.locals;
+		for (int i = 0; i < locals.count; i++) {
+			EntryValue a = locals.getEntry(i);
+			EntryValue b = incoming.locals.getEntry(i);
+			if (a == b || a.getType() == null) {
+				continue;
+			}
+			if (a.getType() != b.getType()) {
+				// A long or double takes two slots, so both halves of a wide value on either side are cleared.
+				int first = isSecondHalf(a.getType()) || isSecondHalf(b.getType()) ? i - 1 : i;
+				int last = isWide(a.getType()) || isWide(b.getType()) ? i + 1 : i;
+				for (int slot = Math.max(first, 0); slot <= Math.min(last, locals.count - 1); slot++) {
+					EntryValue old = locals.getEntry(slot);
+					if (old.getType() != null) {
+						locals.replace(slot, new EntryValue(null, old.getSourceHistory()));
+					}
+				}
+				changed = true;
+				continue;
+			}
+			EntryValue merged = mergeValue(a, b);
+			if (merged != null) {
+				locals.replace(i, merged);
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	private static boolean isWide(EntryType type) {
+		return type == EntryType.LONG || type == EntryType.DOUBLE;
+	}
+
+	private static boolean isSecondHalf(EntryType type) {
+		return type == EntryType.LONG_2ND || type == EntryType.DOUBLE_2ND;
+	}
+
+	/**
+	 * The merge of two values of the same type, or null if the existing value already covers the incoming one.
+	 */
+	private static EntryValue mergeValue(EntryValue existing, EntryValue incoming) {
+		if (existing == incoming) {
+			return null;
+		}
+		if (existing.getType() == EntryType.RETURN_ADDRESS) {
+			if (existing.getSourceHistory().lastInstruction() != incoming.getSourceHistory().lastInstruction()) {
+				throw new SimulationException(Code.UNSUPPORTED, "Subroutine returns to more than one caller.");
+			}
+			return null;
+		}
+		if (!existing.getKnown().isKnown() || existing.getKnown().equals(incoming.getKnown())) {
+			return null;
+		}
+		return existing.known(KnownValue.UNKNOWN);
+	}
+
+}
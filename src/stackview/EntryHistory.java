@@ -3,51 +3,104 @@ package stackview;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.NoSuchElementException;
 
 public class EntryHistory {
 
-	private final List<Integer> history = new ArrayList<>();
+	/**
+	 * Shared by every value created while history tracking is off, it has no instructions or sources.
+	 */
+	public static final EntryHistory UNTRACKED = new EntryHistory();
 
-	private final List<EntryHistory> sources = new ArrayList<>();
+	// Immutable, each history only stores what it adds to the one it was built from.
+	private final EntryHistory previous;
 
-	public EntryHistory() {
+	private final boolean hasInstruction;
+
+	private final int instruction;
+
+	private final int size;
+
+	private final List<EntryHistory> sources;
 
+	private final int sourceCount;
+
+	public EntryHistory() {
+		this(null, false, 0, List.of());
 	}
 
 	public EntryHistory(int source) {
-		history.add(source);
+		this(null, true, source, List.of());
 	}
 
 	public EntryHistory(int source, List<EntryHistory> sources) {
-		history.add(source);
-		this.sources.addAll(sources);
+		this(null, true, source, sources);
 	}
 
 	public EntryHistory(int next, EntryHistory other) {
-		history.addAll(other.history);
-		sources.addAll(other.sources);
-		history.add(next);
+		this(other, true, next, List.of());
 	}
 
 	public EntryHistory(int next, List<EntryHistory> sources, EntryHistory other) {
-		history.addAll(other.history);
-		this.sources.addAll(other.sources);
-		history.add(next);
-		this.sources.addAll(sources);
+		this(other, true, next, sources);
 	}
 
 	public EntryHistory(List<EntryHistory> sources, EntryHistory other) {
-		history.addAll(other.history);
-		this.sources.addAll(other.sources);
-		this.sources.addAll(sources);
+		this(other, false, 0, sources);
+	}
+
+	private EntryHistory(EntryHistory previous, boolean hasInstruction, int instruction, List<EntryHistory> sources) {
+		this.previous = previous;
+		this.hasInstruction = hasInstruction;
+		this.instruction = instruction;
+		this.sources = sources.isEmpty() ? List.of() : List.copyOf(sources);
+		this.size = (previous == null ? 0 : previous.size) + (hasInstruction ? 1 : 0);
+		this.sourceCount = (previous == null ? 0 : previous.sourceCount) + this.sources.size();
+	}
+
+	public int historySize() {
+		return size;
+	}
+
+	public int lastInstruction() {
+		for (EntryHistory h = this; h != null; h = h.previous) {
+			if (h.hasInstruction) {
+				return h.instruction;
+			}
+		}
+		throw new NoSuchElementException();
+	}
+
+	public boolean hasSources() {
+		return sourceCount > 0;
 	}
 
 	public List<Integer> viewHistory() {
-		return Collections.unmodifiableList(history);
+		Integer[] history = new Integer[size];
+		int i = size;
+		for (EntryHistory h = this; h != null; h = h.previous) {
+			if (h.hasInstruction) {
+				history[--i] = h.instruction;
+			}
+		}
+		return List.of(history);
 	}
 
 	public List<EntryHistory> viewSources() {
-		return Collections.unmodifiableList(sources);
+		if (sourceCount == 0) {
+			return List.of();
+		}
+		List<List<EntryHistory>> parts = new ArrayList<>();
+		for (EntryHistory h = this; h != null; h = h.previous) {
+			if (!h.sources.isEmpty()) {
+				parts.add(h.sources);
+			}
+		}
+		List<EntryHistory> all = new ArrayList<>(sourceCount);
+		for (List<EntryHistory> part : parts.reversed()) {
+			all.addAll(part);
+		}
+		return Collections.unmodifiableList(all);
 	}
 
 }
@@ -5,9 +5,26 @@ import java.util.List;
 
 public class EntryValue {
 
+	// One value per type (and one for an empty slot) without history or a known value, shared while history tracking is off.
+	private static final EntryValue[] UNTRACKED = new EntryValue[EntryType.values().length + 1];
+
+	// One marker per number type for a known value without history. Stack, LocalVariables and the simulator's popped values keep the number
+	// in a long beside it, so folding a known int, long, float or double allocates nothing. Their public methods never return a marker.
+	private static final EntryValue[] NUMBERS = new EntryValue[EntryType.values().length];
+
+	static {
+		UNTRACKED[0] = new EntryValue(null, EntryHistory.UNTRACKED, null);
+		for (EntryType type : EntryType.values()) {
+			UNTRACKED[type.ordinal() + 1] = new EntryValue(type, EntryHistory.UNTRACKED, null);
+			if (numberKind(type) != null) {
+				NUMBERS[type.ordinal()] = new EntryValue(type, EntryHistory.UNTRACKED, null);
+			}
+		}
+	}
+
 	private final EntryType type;
 
-	private final String knownValue;
+	private final KnownValue knownValue;
 
 	public EntryType getType() {
 		return type;
@@ -19,24 +36,27 @@ public class EntryValue {
 
 	private final EntryHistory sourceHistory;
 
+	// Cached by stateHash, 0 until first computed.
+	private int stateHash;
+
 	public EntryValue(EntryType type) {
-		this(type, (String) null);
+		this(type, (KnownValue) null);
 	}
 
-	public EntryValue(EntryType type, String knownValue) {
+	public EntryValue(EntryType type, KnownValue knownValue) {
 		this.type = type;
 		sourceHistory = new EntryHistory(-1);
-		this.knownValue = knownValue;
+		this.knownValue = knownValue == null ? KnownValue.UNKNOWN : knownValue;
 	}
 
 	public EntryValue(EntryType type, int instructionSource) {
-		this(type, instructionSource, (String) null);
+		this(type, instructionSource, (KnownValue) null);
 	}
 
-	public EntryValue(EntryType type, int instructionSource, String knownValue) {
+	public EntryValue(EntryType type, int instructionSource, KnownValue knownValue) {
 		this.type = type;
 		sourceHistory = new EntryHistory(instructionSource);
-		this.knownValue = knownValue;
+		this.knownValue = knownValue == null ? KnownValue.UNKNOWN : knownValue;
 
 	}
 
@@ -44,47 +64,167 @@ public class EntryValue {
 		this(type, instructionSource, parents, null);
 	}
 
-	public EntryValue(EntryType type, int instructionSource, List<EntryValue> parents, String knownValue) {
+	public EntryValue(EntryType type, int instructionSource, List<EntryValue> parents, KnownValue knownValue) {
 		this.type = type;
 		List<EntryHistory> histories = new ArrayList<>();
 		for (var ev : parents) {
 			histories.add(ev.sourceHistory);
 		}
 		sourceHistory = new EntryHistory(instructionSource, histories);
-		this.knownValue = knownValue;
+		this.knownValue = knownValue == null ? KnownValue.UNKNOWN : knownValue;
 	}
 
 	public EntryValue(EntryType type, EntryHistory instructionSource) {
 		this(type, instructionSource, null);
 	}
 
-	public EntryValue(EntryType type, EntryHistory instructionSource, String knownValue) {
+	public EntryValue(EntryType type, EntryHistory instructionSource, KnownValue knownValue) {
 		this.type = type;
 		this.sourceHistory = instructionSource;
-		this.knownValue = knownValue;
+		this.knownValue = knownValue == null ? KnownValue.UNKNOWN : knownValue;
 	}
 
 	public String toString() {
 		return type + "";
 	}
 
+	/**
+	 * The shared value of a type with no history and nothing known, null for an empty local slot.
+	 */
+	public static EntryValue untracked(EntryType type) {
+		return UNTRACKED[type == null ? 0 : type.ordinal() + 1];
+	}
+
+	public boolean isTracked() {
+		return sourceHistory != EntryHistory.UNTRACKED;
+	}
+
+	/**
+	 * The marker for a known number of the type whose number is kept beside it, see isNumber.
+	 */
+	static EntryValue number(EntryType type) {
+		return NUMBERS[type.ordinal()];
+	}
+
+	/**
+	 * True for the marker of a number kept beside the value rather than in it. Its own known value is unknown.
+	 */
+	boolean isNumber() {
+		return type != null && NUMBERS[type.ordinal()] == this;
+	}
+
+	/**
+	 * The kind of known value a slot of the type holds as a number, or null for types that hold no numbers.
+	 */
+	static KnownValue.Kind numberKind(EntryType type) {
+		if (type == null) {
+			return null;
+		}
+		return switch (type) {
+			case INT -> KnownValue.Kind.INT;
+			case LONG -> KnownValue.Kind.LONG;
+			case FLOAT -> KnownValue.Kind.FLOAT;
+			case DOUBLE -> KnownValue.Kind.DOUBLE;
+			default -> null;
+		};
+	}
+
+	/**
+	 * True if this is a value without history that knows a number of its own type, which can be kept as number(type) and its bits instead.
+	 */
+	boolean storesAsNumber() {
+		return !isTracked() && !isNumber() && knownValue.getKind() == numberKind(type);
+	}
+
+	/**
+	 * The value a marker with the given number stands for.
+	 */
+	static EntryValue ofNumber(EntryType type, long number) {
+		return untracked(type).known(KnownValue.ofBits(numberKind(type), number));
+	}
+
 	public EntryValue move(int instructionSource) {
+		if (!isTracked()) {
+			return this;
+		}
 		EntryValue move = new EntryValue(type, new EntryHistory(instructionSource, sourceHistory), knownValue);
 		return move;
 	}
 
-	public EntryValue known(String known) {
+	public EntryValue known(KnownValue known) {
+		if (known == knownValue) {
+			return this;
+		}
+		if (!isTracked()) {
+			if (known == null || !known.isKnown()) {
+				return untracked(type);
+			}
+			return known.untracked(type);
+		}
 		EntryValue move = new EntryValue(type, sourceHistory, known);
 		return move;
 	}
 
 	public EntryValue move(EntryType type, int instructionSource) {
+		if (!isTracked()) {
+			return type == this.type ? this : untracked(type).known(knownValue);
+		}
 		EntryValue move = new EntryValue(type, new EntryHistory(instructionSource, sourceHistory), knownValue);
 		return move;
 	}
 
-	public String getKnownValue() {
+	public KnownValue getKnown() {
 		return knownValue;
 	}
 
+	public String getKnownValue() {
+		return knownValue.isKnown() ? knownValue.toString() : null;
+	}
+
+	/**
+	 * Hash of the type and known value only, so values that only differ in history hash the same.
+	 */
+	public int stateHash() {
+		int hash = stateHash;
+		if (hash == 0) {
+			hash = 31 * (type == null ? 0 : type.ordinal() + 1) + knownValue.hashCode();
+			if (hash == 0) {
+				hash = 1;
+			}
+			stateHash = hash;
+		}
+		return hash;
+	}
+
+	public boolean stateEquals(EntryValue other) {
+		return this == other || (type == other.type && knownValue.equals(other.knownValue));
+	}
+
+	/**
+	 * The stateHash of the value this stands for when its number is kept beside it, the same as ofNumber would hash.
+	 */
+	int stateHash(long number) {
+		if (!isNumber()) {
+			return stateHash();
+		}
+		int hash = 31 * (type.ordinal() + 1) + KnownValue.hashOfBits(numberKind(type), number);
+		return hash == 0 ? 1 : hash;
+	}
+
+	/**
+	 * stateEquals for values whose numbers may be kept beside them, without creating the values they stand for.
+	 */
+	boolean stateEquals(long number, EntryValue other, long otherNumber) {
+		if (isNumber()) {
+			if (other.isNumber()) {
+				return this == other && number == otherNumber;
+			}
+			return type == other.type && other.knownValue.equalsBits(numberKind(type), number);
+		}
+		if (other.isNumber()) {
+			return other.stateEquals(otherNumber, this, number);
+		}
+		return stateEquals(other);
+	}
+
 }
@@ -4,9 +4,12 @@ import static org.objectweb.asm.Opcodes.*;
 import static stackview.StackAlter.*;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 
 import org.objectweb.asm.ConstantDynamic;
 import org.objectweb.asm.Handle;
@@ -36,21 +39,39 @@ import stackview.Stack.StackOp;
 
 public class InstructionSpec extends MethodVisitor {
 
+	private static final int[] NO_JUMPS = new int[0];
+
 	public List<StackAlter> alters = new ArrayList<>();
 	public int locals;
 	public int stackSize;
 	public Map<Label, Integer> lineNumbers = new HashMap<>();
 	public Map<Label, String> labelNames = new HashMap<>();
+	public Map<Label, Integer> labelIndices = new HashMap<>();
 	int labelIndex;
 	public List<LocalVariableNode> localsDebug = new ArrayList<>();
+	int[][] localNameIndices = new int[0][];
+	String[][] localNameValues = new String[0][];
 	public List<TryCatchBlockNode> tryCatchBlocks = new ArrayList<>();
+	int[] catchBoundaries = new int[0];
+	List<List<TryCatchBlockNode>> catchSegments = new ArrayList<>();
+	List<List<TryCatchBlockNode>> handlerSegments = new ArrayList<>();
+	String name;
 	String descriptor;
 	boolean staticMethod;
+	private List<Object> frameLocals;
 
 	InstructionString stringer = new InstructionString(this);
 
 	public InstructionSpec(String descriptor, boolean staticMethod) {
+		this(null, descriptor, staticMethod);
+	}
+
+	/**
+	 * The name is only needed for compressed frames, in a constructor this starts out uninitialized.
+	 */
+	public InstructionSpec(String name, String descriptor, boolean staticMethod) {
 		super(ASM9);
+		this.name = name;
 		this.descriptor = descriptor;
 		this.staticMethod = staticMethod;
 	}
@@ -59,6 +80,17 @@ public class InstructionSpec extends MethodVisitor {
 		return stringer.toString(node);
 	}
 
+	/**
+	 * The text of the instruction at an index, from a table built for the whole method on first use.
+	 */
+	public String toString(int index) {
+		return stringer.toString(index);
+	}
+
+	public String compressedString(int index) {
+		return stringer.compressed(index);
+	}
+
 	public void visitFieldInsn(int opcode, String owner, String name, String descriptor) {
 		super.visitFieldInsn(opcode, owner, name, descriptor);
 		StackAlter alter = alter(new FieldInsnNode(opcode, owner, name, descriptor));
@@ -85,359 +117,20 @@ public class InstructionSpec extends MethodVisitor {
 	public void visitIincInsn(int varIndex, int increment) {
 		super.visitIincInsn(varIndex, increment);
 
-		StackAlter alter = alter(new IincInsnNode(varIndex, increment));
+		StackAlter alter = alter(new IincInsnNode(varIndex, increment), OpcodeEffects.of(IINC));
 		alters.add(alter);
 	}
 
 	public void visitInsn(int opcode) {
 		super.visitInsn(opcode);
-		StackAlter alter = alter(new InsnNode(opcode));
+		StackAlter alter = alter(new InsnNode(opcode), OpcodeEffects.of(opcode));
 		alters.add(alter);
-		switch (opcode) {
-			case NOP -> {
-			}
-			case ACONST_NULL -> {
-				alter.add(StackOp.REFERENCE);
-			}
-			case ICONST_M1 -> {
-				alter.add(StackOp.INT);
-			}
-			case ICONST_0 -> {
-				alter.add(StackOp.INT);
-			}
-			case ICONST_1 -> {
-				alter.add(StackOp.INT);
-			}
-			case ICONST_2 -> {
-				alter.add(StackOp.INT);
-			}
-			case ICONST_3 -> {
-				alter.add(StackOp.INT);
-			}
-			case ICONST_4 -> {
-				alter.add(StackOp.INT);
-			}
-			case ICONST_5 -> {
-				alter.add(StackOp.INT);
-			}
-			case LCONST_0 -> {
-				alter.add(StackOp.LONG);
-			}
-			case LCONST_1 -> {
-				alter.add(StackOp.LONG);
-			}
-			case FCONST_0 -> {
-				alter.add(StackOp.FLOAT);
-			}
-			case FCONST_1 -> {
-				alter.add(StackOp.FLOAT);
-			}
-			case FCONST_2 -> {
-				alter.add(StackOp.FLOAT);
-			}
-			case DCONST_0 -> {
-				alter.add(StackOp.DOUBLE);
-			}
-			case DCONST_1 -> {
-				alter.add(StackOp.DOUBLE);
-			}
-			case IALOAD -> {
-				alter.remove(StackOp.INT, StackOp.REFERENCE).add(StackOp.INT);
-			}
-			case LALOAD -> {
-				alter.remove(StackOp.INT, StackOp.REFERENCE).add(StackOp.LONG);
-			}
-			case FALOAD -> {
-				alter.remove(StackOp.INT, StackOp.REFERENCE).add(StackOp.FLOAT);
-			}
-			case DALOAD -> {
-				alter.remove(StackOp.INT, StackOp.REFERENCE).add(StackOp.DOUBLE);
-			}
-			case AALOAD -> {
-				alter.remove(StackOp.INT, StackOp.REFERENCE).add(StackOp.REFERENCE);
-			}
-			case BALOAD -> {
-				alter.remove(StackOp.INT, StackOp.REFERENCE).add(StackOp.INT);
-			}
-			case CALOAD -> {
-				alter.remove(StackOp.INT, StackOp.REFERENCE).add(StackOp.INT);
-			}
-			case SALOAD -> {
-				alter.remove(StackOp.INT, StackOp.REFERENCE).add(StackOp.INT);
-			}
-			case IASTORE -> {
-				alter.remove(StackOp.INT, StackOp.INT, StackOp.REFERENCE);
-			}
-			case LASTORE -> {
-				alter.remove(StackOp.LONG, StackOp.INT, StackOp.REFERENCE);
-			}
-			case FASTORE -> {
-				alter.remove(StackOp.FLOAT, StackOp.INT, StackOp.REFERENCE);
-			}
-			case DASTORE -> {
-				alter.remove(StackOp.DOUBLE, StackOp.INT, StackOp.REFERENCE);
-			}
-			case AASTORE -> {
-				alter.remove(StackOp.REFERENCE, StackOp.INT, StackOp.REFERENCE);
-			}
-			case BASTORE -> {
-				alter.remove(StackOp.INT, StackOp.INT, StackOp.REFERENCE);
-			}
-			case CASTORE -> {
-				alter.remove(StackOp.INT, StackOp.INT, StackOp.REFERENCE);
-			}
-			case SASTORE -> {
-				alter.remove(StackOp.INT, StackOp.INT, StackOp.REFERENCE);
-			}
-			case POP -> {
-				alter.remove(StackOp.ANY_1);
-			}
-			case POP2 -> {
-				alter.remove(StackOp.ANY_2);
-			}
-			case DUP -> {
-				alter.remove(StackOp.ANY_1).add(StackOp.ANY_1, StackOp.ANY_1);
-			}
-			case DUP_X1 -> {
-				alter.remove(StackOp.ANY_1, StackOp.ANY_1).add(StackOp.ANY_1, StackOp.ANY_1, StackOp.ANY_1);
-			}
-			case DUP_X2 -> {
-				alter.remove(StackOp.ANY_1, StackOp.ANY_2).add(StackOp.ANY_1, StackOp.ANY_2, StackOp.ANY_1);
-			}
-			case DUP2 -> {
-				alter.remove(StackOp.ANY_2).add(StackOp.ANY_2, StackOp.ANY_2);
-			}
-			case DUP2_X1 -> {
-				alter.remove(StackOp.ANY_2, StackOp.ANY_1).add(StackOp.ANY_2, StackOp.ANY_1, StackOp.ANY_2);
-			}
-			case DUP2_X2 -> {
-				alter.remove(StackOp.ANY_2, StackOp.ANY_2).add(StackOp.ANY_2, StackOp.ANY_2, StackOp.ANY_2);
-			}
-			case SWAP -> {
-				alter.remove(StackOp.ANY_1, StackOp.ANY_1).add(StackOp.ANY_1, StackOp.ANY_1);
-			}
-			case IADD -> {
-				alter.remove(StackOp.INT, StackOp.INT).add(StackOp.INT);
-			}
-			case LADD -> {
-				alter.remove(StackOp.LONG, StackOp.LONG).add(StackOp.LONG);
-			}
-			case FADD -> {
-				alter.remove(StackOp.FLOAT, StackOp.FLOAT).add(StackOp.FLOAT);
-			}
-			case DADD -> {
-				alter.remove(StackOp.DOUBLE, StackOp.DOUBLE).add(StackOp.DOUBLE);
-			}
-			case ISUB -> {
-				alter.remove(StackOp.INT, StackOp.INT).add(StackOp.INT);
-			}
-			case LSUB -> {
-				alter.remove(StackOp.LONG, StackOp.LONG).add(StackOp.LONG);
-			}
-			case FSUB -> {
-				alter.remove(StackOp.FLOAT, StackOp.FLOAT).add(StackOp.FLOAT);
-			}
-			case DSUB -> {
-				alter.remove(StackOp.DOUBLE, StackOp.DOUBLE).add(StackOp.DOUBLE);
-			}
-			case IMUL -> {
-				alter.remove(StackOp.INT, StackOp.INT).add(StackOp.INT);
-			}
-			case LMUL -> {
-				alter.remove(StackOp.LONG, StackOp.LONG).add(StackOp.LONG);
-			}
-			case FMUL -> {
-				alter.remove(StackOp.FLOAT, StackOp.FLOAT).add(StackOp.FLOAT);
-			}
-			case DMUL -> {
-				alter.remove(StackOp.DOUBLE, StackOp.DOUBLE).add(StackOp.DOUBLE);
-			}
-			case IDIV -> {
-				alter.remove(StackOp.INT, StackOp.INT).add(StackOp.INT);
-			}
-			case LDIV -> {
-				alter.remove(StackOp.LONG, StackOp.LONG).add(StackOp.LONG);
-			}
-			case FDIV -> {
-				alter.remove(StackOp.FLOAT, StackOp.FLOAT).add(StackOp.FLOAT);
-			}
-			case DDIV -> {
-				alter.remove(StackOp.DOUBLE, StackOp.DOUBLE).add(StackOp.DOUBLE);
-			}
-			case IREM -> {
-				alter.remove(StackOp.INT, StackOp.INT).add(StackOp.INT);
-			}
-			case LREM -> {
-				alter.remove(StackOp.LONG, StackOp.LONG).add(StackOp.LONG);
-			}
-			case FREM -> {
-				alter.remove(StackOp.FLOAT, StackOp.FLOAT).add(StackOp.FLOAT);
-			}
-			case DREM -> {
-				alter.remove(StackOp.DOUBLE, StackOp.DOUBLE).add(StackOp.DOUBLE);
-			}
-			case INEG -> {
-				alter.remove(StackOp.INT).add(StackOp.INT);
-			}
-			case LNEG -> {
-				alter.remove(StackOp.LONG).add(StackOp.LONG);
-			}
-			case FNEG -> {
-				alter.remove(StackOp.FLOAT).add(StackOp.FLOAT);
-			}
-			case DNEG -> {
-				alter.remove(StackOp.DOUBLE).add(StackOp.DOUBLE);
-			}
-			case ISHL -> {
-				alter.remove(StackOp.INT, StackOp.INT).add(StackOp.INT);
-			}
-			case LSHL -> {
-				alter.remove(StackOp.INT, StackOp.LONG).add(StackOp.LONG);
-			}
-			case ISHR -> {
-				alter.remove(StackOp.INT, StackOp.INT).add(StackOp.INT);
-			}
-			case LSHR -> {
-				alter.remove(StackOp.INT, StackOp.LONG).add(StackOp.LONG);
-			}
-			case IUSHR -> {
-				alter.remove(StackOp.INT, StackOp.INT).add(StackOp.INT);
-			}
-			case LUSHR -> {
-				alter.remove(StackOp.INT, StackOp.LONG).add(StackOp.LONG);
-			}
-			case IAND -> {
-				alter.remove(StackOp.INT, StackOp.INT).add(StackOp.INT);
-			}
-			case LAND -> {
-				alter.remove(StackOp.LONG, StackOp.LONG).add(StackOp.LONG);
-			}
-			case IOR -> {
-				alter.remove(StackOp.INT, StackOp.INT).add(StackOp.INT);
-			}
-			case LOR -> {
-				alter.remove(StackOp.LONG, StackOp.LONG).add(StackOp.LONG);
-			}
-			case IXOR -> {
-				alter.remove(StackOp.INT, StackOp.INT).add(StackOp.INT);
-			}
-			case LXOR -> {
-				alter.remove(StackOp.LONG, StackOp.LONG).add(StackOp.LONG);
-			}
-			case I2L -> {
-				alter.remove(StackOp.INT).add(StackOp.LONG);
-			}
-			case I2F -> {
-				alter.remove(StackOp.INT).add(StackOp.FLOAT);
-			}
-			case I2D -> {
-				alter.remove(StackOp.INT).add(StackOp.DOUBLE);
-			}
-			case L2I -> {
-				alter.remove(StackOp.LONG).add(StackOp.INT);
-			}
-			case L2F -> {
-				alter.remove(StackOp.LONG).add(StackOp.FLOAT);
-			}
-			case L2D -> {
-				alter.remove(StackOp.LONG).add(StackOp.DOUBLE);
-			}
-			case F2I -> {
-				alter.remove(StackOp.FLOAT).add(StackOp.INT);
-			}
-			case F2L -> {
-				alter.remove(StackOp.FLOAT).add(StackOp.LONG);
-			}
-			case F2D -> {
-				alter.remove(StackOp.FLOAT).add(StackOp.DOUBLE);
-			}
-			case D2I -> {
-				alter.remove(StackOp.DOUBLE).add(StackOp.INT);
-			}
-			case D2L -> {
-				alter.remove(StackOp.DOUBLE).add(StackOp.LONG);
-			}
-			case D2F -> {
-				alter.remove(StackOp.DOUBLE).add(StackOp.FLOAT);
-			}
-			case I2B -> {
-				alter.remove(StackOp.INT).add(StackOp.INT);
-			}
-			case I2C -> {
-				alter.remove(StackOp.INT).add(StackOp.INT);
-			}
-			case I2S -> {
-				alter.remove(StackOp.INT).add(StackOp.INT);
-			}
-			case LCMP -> {
-				alter.remove(StackOp.LONG, StackOp.LONG).add(StackOp.INT);
-			}
-			case FCMPL -> {
-				alter.remove(StackOp.FLOAT, StackOp.FLOAT).add(StackOp.INT);
-			}
-			case FCMPG -> {
-				alter.remove(StackOp.FLOAT, StackOp.FLOAT).add(StackOp.INT);
-			}
-			case DCMPL -> {
-				alter.remove(StackOp.DOUBLE, StackOp.DOUBLE).add(StackOp.INT);
-			}
-			case DCMPG -> {
-				alter.remove(StackOp.DOUBLE, StackOp.DOUBLE).add(StackOp.INT);
-			}
-			case IRETURN -> {
-				alter.remove(StackOp.INT).add(StackOp.CLEAR);
-			}
-			case LRETURN -> {
-				alter.remove(StackOp.LONG).add(StackOp.CLEAR);
-			}
-			case FRETURN -> {
-				alter.remove(StackOp.FLOAT).add(StackOp.CLEAR);
-			}
-			case DRETURN -> {
-				alter.remove(StackOp.DOUBLE).add(StackOp.CLEAR);
-			}
-			case ARETURN -> {
-				alter.remove(StackOp.REFERENCE).add(StackOp.CLEAR);
-			}
-			case RETURN -> {
-				alter.add(StackOp.CLEAR);
-			}
-			case ARRAYLENGTH -> {
-				alter.remove(StackOp.REFERENCE).add(StackOp.INT);
-			}
-			case ATHROW -> {
-				alter.remove(StackOp.REFERENCE).add(StackOp.CLEAR).add(StackOp.REFERENCE).add(StackOp.THROW);
-			}
-			case MONITORENTER -> {
-				alter.remove(StackOp.REFERENCE);
-			}
-			case MONITOREXIT -> {
-				alter.remove(StackOp.REFERENCE);
-			}
-			default -> {
-				throw new UnsupportedOperationException("Unknown opcode " + opcode);
-			}
-		}
 	}
 
 	public void visitIntInsn(int opcode, int operand) {
 		super.visitIntInsn(opcode, operand);
-		StackAlter alter = alter(new IntInsnNode(opcode, operand));
+		StackAlter alter = alter(new IntInsnNode(opcode, operand), OpcodeEffects.of(opcode));
 		alters.add(alter);
-		switch (opcode) {
-			case BIPUSH -> {
-				alter.add(StackOp.INT);
-			}
-			case SIPUSH -> {
-				alter.add(StackOp.INT);
-			}
-			case NEWARRAY -> {
-				alter.remove(StackOp.INT).add(StackOp.REFERENCE);
-			}
-			default -> {
-				throw new UnsupportedOperationException("Unknown opcode " + opcode);
-			}
-		}
 	}
 
 	public void visitInvokeDynamicInsn(String name, String descriptor, Handle bootstrapMethodHandle, Object... bootstrapMethodArguments) {
@@ -454,90 +147,70 @@ public class InstructionSpec extends MethodVisitor {
 		if (opcode == JSR) {
 			Label extra = new Label();
 			StackAlter alter = alter(new LabelNode(extra));
+			labelIndices.put(extra, alters.size());
 			alters.add(alter);
 			labelNames.put(extra, "L" + labelIndex++);
 		}
-		StackAlter alter = alter(new JumpInsnNode(opcode, new LabelNode(label)));
+		StackAlter alter = alter(new JumpInsnNode(opcode, new LabelNode(label)), OpcodeEffects.of(opcode));
 		alters.add(alter);
-		alter.jumpTargets.add(label);
-		switch (opcode) {
-			case IFEQ -> {
-				alter.remove(StackOp.INT);
-			}
-			case IFNE -> {
-				alter.remove(StackOp.INT);
-			}
-			case IFLT -> {
-				alter.remove(StackOp.INT);
-			}
-			case IFGE -> {
-				alter.remove(StackOp.INT);
-			}
-			case IFGT -> {
-				alter.remove(StackOp.INT);
-			}
-			case IFLE -> {
-				alter.remove(StackOp.INT);
-			}
-			case IF_ICMPEQ -> {
-				alter.remove(StackOp.INT, StackOp.INT);
-			}
-			case IF_ICMPNE -> {
-				alter.remove(StackOp.INT, StackOp.INT);
-			}
-			case IF_ICMPLT -> {
-				alter.remove(StackOp.INT, StackOp.INT);
-			}
-			case IF_ICMPGE -> {
-				alter.remove(StackOp.INT, StackOp.INT);
-			}
-			case IF_ICMPGT -> {
-				alter.remove(StackOp.INT, StackOp.INT);
-			}
-			case IF_ICMPLE -> {
-				alter.remove(StackOp.INT, StackOp.INT);
-			}
-			case IF_ACMPEQ -> {
-				alter.remove(StackOp.REFERENCE, StackOp.REFERENCE);
-			}
-			case IF_ACMPNE -> {
-				alter.remove(StackOp.REFERENCE, StackOp.REFERENCE);
-			}
-			case GOTO -> {
-			}
-			case JSR -> {
-				alter.add(StackOp.RETURN_ADDRESS);
-			}
-			case IFNULL -> {
-				alter.remove(StackOp.REFERENCE);
-			}
-			case IFNONNULL -> {
-				alter.remove(StackOp.REFERENCE);
-			}
-			default -> {
-				throw new UnsupportedOperationException("Unknown opcode " + opcode);
-			}
-		}
-		alter.add(StackOp.JUMP);
+		alter.jumpTargets = List.of(label);
 	}
 
 	public void visitFrame(int type, int numLocal, Object[] local, int numStack, Object[] stack) {
 		super.visitFrame(type, numLocal, local, numStack, stack);
-		StackAlter alter = alter(new FrameNode(type, numLocal, local, numStack, stack));
+		FrameNode frame = new FrameNode(type, numLocal, local, numStack, stack);
+		StackAlter alter = alter(frame, OpcodeEffects.FRAME);
 		alters.add(alter);
-		alter.add(StackOp.FRAME);
 
 		switch (type) {
 			case F_NEW:
 			case F_FULL:
+				frameLocals = frame.local;
 				break;
-			case F_APPEND:
+			case F_APPEND: {
+				List<Object> appended = new ArrayList<>(frameLocals().size() + numLocal);
+				appended.addAll(frameLocals);
+				appended.addAll(frame.local);
+				frameLocals = appended;
+				break;
+			}
 			case F_CHOP:
+				if (numLocal > frameLocals().size()) {
+					throw new IllegalStateException("Cannot chop " + numLocal + " locals from a frame with " + frameLocals.size());
+				}
+				frameLocals = List.copyOf(frameLocals.subList(0, frameLocals.size() - numLocal));
+				break;
 			case F_SAME:
 			case F_SAME1:
+				frameLocals();
+				break;
 			default:
 				throw new UnsupportedOperationException("Unsupported frame type " + type);
 		}
+		alter.frameLocals = frameLocals;
+	}
+
+	/**
+	 * The locals of the last frame visited, or before the first frame the ones the JVM builds from the descriptor.
+	 */
+	private List<Object> frameLocals() {
+		if (frameLocals == null) {
+			List<Object> initial = new ArrayList<>();
+			if (!staticMethod) {
+				initial.add("<init>".equals(name) ? UNINITIALIZED_THIS : "java/lang/Object");
+			}
+			for (StackOp op : Stack.fromMethodArguments(descriptor)) {
+				initial.add(switch (op) {
+					case INT -> INTEGER;
+					case FLOAT -> FLOAT;
+					case LONG -> LONG;
+					case DOUBLE -> DOUBLE;
+					default -> "java/lang/Object";
+				});
+			}
+			frameLocals = initial;
+		}
+		return frameLocals;
 	}
 
 	public void visitLdcInsn(Object cst) {
@@ -582,10 +255,141 @@ public class InstructionSpec extends MethodVisitor {
 	public void visitLabel(Label label) {
 		super.visitLabel(label);
 		StackAlter alter = alter(new LabelNode(label));
+		labelIndices.put(label, alters.size());
 		alters.add(alter);
 		labelNames.put(label, "L" + labelIndex++);
 	}
 
+	public int indexOf(Label label) {
+		Integer index = labelIndices.get(label);
+		if (index == null) {
+			throw new IllegalStateException("Invalid jump label.");
+		}
+		return index;
+	}
+
+	public void visitEnd() {
+		super.visitEnd();
+		for (StackAlter alter : alters) {
+			if (alter.jumpTargets.isEmpty()) {
+				alter.jumpIndices = NO_JUMPS;
+				continue;
+			}
+			alter.jumpIndices = new int[alter.jumpTargets.size()];
+			List<Optional<Label>> expected = new ArrayList<>(alter.jumpIndices.length);
+			for (int i = 0; i < alter.jumpIndices.length; i++) {
+				alter.jumpIndices[i] = indexOf(alter.jumpTargets.get(i));
+				expected.add(Optional.of(alter.jumpTargets.get(i)));
+			}
+			alter.expectedTargets = expected;
+		}
+		indexTryCatchBlocks();
+		indexLocalNames();
+	}
+
+	private void indexLocalNames() {
+		// For each slot record the instruction indices where its debug name changes and the name from there on.
+		localNameIndices = new int[locals][];
+		localNameValues = new String[locals][];
+		// The starts and ends of every entry are sorted once by slot, so each slot reads its own run of events.
+		List<int[]> events = new ArrayList<>(localsDebug.size() * 2);
+		for (int i = 0; i < localsDebug.size(); i++) {
+			LocalVariableNode varName = localsDebug.get(i);
+			if (varName.index >= 0 && varName.index < locals) {
+				events.add(new int[] { varName.index, indexOf(varName.start.getLabel()), i, 0 });
+				events.add(new int[] { varName.index, indexOf(varName.end.getLabel()), i, 1 });
+			}
+		}
+		events.sort(Comparator.<int[]> comparingInt(e -> e[0]).thenComparingInt(e -> e[1]).thenComparingInt(e -> e[2]).thenComparingInt(e -> e[3]));
+
+		int next = 0;
+		for (int local = 0; local < locals; local++) {
+			List<Integer> indices = new ArrayList<>();
+			List<String> names = new ArrayList<>();
+			String name = null;
+			LocalVariableNode setter = null;
+			for (; next < events.size() && events.get(next)[0] == local; next++) {
+				int[] event = events.get(next);
+				LocalVariableNode varName = localsDebug.get(event[2]);
+				if (event[3] == 0) {
+					name = varName.name;
+					setter = varName;
+				} else if (setter == varName) {
+					name = null;
+				}
+				if (!indices.isEmpty() && indices.getLast() == event[1]) {
+					names.set(names.size() - 1, name);
+				} else {
+					indices.add(event[1]);
+					names.add(name);
+				}
+			}
+			localNameIndices[local] = indices.stream().mapToInt(Integer::intValue).toArray();
+			localNameValues[local] = names.toArray(new String[0]);
+		}
+	}
+
+	public String getLocalName(int index, int local) {
+		if (local < 0 || local >= localNameIndices.length) {
+			return null;
+		}
+		int change = Arrays.binarySearch(localNameIndices[local], index);
+		if (change < 0) {
+			change = -change - 2;
+		}
+		if (change < 0) {
+			return null;
+		}
+		return localNameValues[local][change];
+	}
+
+	private void indexTryCatchBlocks() {
+		// Split the method into segments at every try start and end, each segment shares one list of active handlers.
+		List<TryCatchBlockNode> byStart = new ArrayList<>(tryCatchBlocks);
+		byStart.sort(Comparator.comparingInt(tryCatch -> indexOf(tryCatch.start.getLabel())));
+		catchBoundaries = tryCatchBlocks.stream() //
+				.flatMapToInt(tryCatch -> Arrays.stream(new int[] { indexOf(tryCatch.start.getLabel()), indexOf(tryCatch.end.getLabel()) })) //
+				.sorted().distinct().toArray();
+		catchSegments.clear();
+		handlerSegments.clear();
+		for (int boundary : catchBoundaries) {
+			catchSegments.add(activeAt(byStart, boundary));
+			handlerSegments.add(activeAt(tryCatchBlocks, boundary));
+		}
+	}
+
+	private List<TryCatchBlockNode> activeAt(List<TryCatchBlockNode> tryCatches, int boundary) {
+		List<TryCatchBlockNode> active = new ArrayList<>();
+		for (TryCatchBlockNode tryCatch : tryCatches) {
+			if (indexOf(tryCatch.start.getLabel()) <= boundary && indexOf(tryCatch.end.getLabel()) > boundary) {
+				active.add(tryCatch);
+			}
+		}
+		return List.copyOf(active);
+	}
+
+	public List<TryCatchBlockNode> getActiveCatches(int index) {
+		return segment(catchSegments, index);
+	}
+
+	/**
+	 * The handlers active at an instruction in exception table order, the order the JVM tries them in.
+	 */
+	public List<TryCatchBlockNode> getHandlers(int index) {
+		return segment(handlerSegments, index);
+	}
+
+	private List<TryCatchBlockNode> segment(List<List<TryCatchBlockNode>> segments, int index) {
+		int segment = Arrays.binarySearch(catchBoundaries, index);
+		if (segment < 0) {
+			segment = -segment - 2;
+		}
+		if (segment < 0) {
+			return List.of();
+		}
+		return segments.get(segment);
+	}
+
 	public void visitLineNumber(int line, Label start) {
 		super.visitLineNumber(line, start);
 		lineNumbers.put(start, line);
@@ -635,17 +439,15 @@ public class InstructionSpec extends MethodVisitor {
 		for (int i = 0; i < labels.length; i++) {
 			nodes[i] = new LabelNode(labels[i]);
 		}
-		StackAlter alter = alter(new LookupSwitchInsnNode(new LabelNode(dflt), keys, nodes));
+		StackAlter alter = alter(new LookupSwitchInsnNode(new LabelNode(dflt), keys, nodes), OpcodeEffects.of(LOOKUPSWITCH));
 		alters.add(alter);
 
+		List<Label> targets = new ArrayList<>(labels.length + 1);
 		for (int i = 0; i < labels.length; i++) {
-			alter.jumpTargets.add(labels[i]);
+			targets.add(labels[i]);
 		}
-		alter.jumpTargets.add(dflt);
-
-		alter.remove(StackOp.INT);
-		alter.add(StackOp.JUMP);
-
+		targets.add(dflt);
+		alter.jumpTargets = targets;
 	}
 
 	public void visitMultiANewArrayInsn(String descriptor, int numDimensions) {
@@ -660,70 +462,14 @@ public class InstructionSpec extends MethodVisitor {
 
 	public void visitTypeInsn(int opcode, String type) {
 		super.visitTypeInsn(opcode, type);
-		StackAlter alter = alter(new TypeInsnNode(opcode, type));
+		StackAlter alter = alter(new TypeInsnNode(opcode, type), OpcodeEffects.of(opcode));
 		alters.add(alter);
-		switch (opcode) {
-			case NEW -> {
-				alter.add(StackOp.REFERENCE);
-			}
-			case ANEWARRAY -> {
-				alter.remove(StackOp.INT).add(StackOp.REFERENCE);
-			}
-			case CHECKCAST -> {
-				alter.remove(StackOp.REFERENCE).add(StackOp.REFERENCE);
-			}
-			case INSTANCEOF -> {
-				alter.remove(StackOp.REFERENCE).add(StackOp.INT);
-			}
-			default -> {
-				throw new UnsupportedOperationException("Unknown opcode " + opcode);
-			}
-		}
 	}
 
 	public void visitVarInsn(int opcode, int varIndex) {
 		super.visitVarInsn(opcode, varIndex);
-		StackAlter alter = alter(new VarInsnNode(opcode, varIndex));
+		StackAlter alter = alter(new VarInsnNode(opcode, varIndex), OpcodeEffects.of(opcode));
 		alters.add(alter);
-		switch (opcode) {
-			case ILOAD -> {
-				alter.add(StackOp.INT);
-			}
-			case LLOAD -> {
-				alter.add(StackOp.LONG);
-			}
-			case FLOAD -> {
-				alter.add(StackOp.FLOAT);
-			}
-			case DLOAD -> {
-				alter.add(StackOp.DOUBLE);
-			}
-			case ALOAD -> {
-				alter.add(StackOp.REFERENCE);
-			}
-			case ISTORE -> {
-				alter.remove(StackOp.INT);
-			}
-			case LSTORE -> {
-				alter.remove(StackOp.LONG);
-			}
-			case FSTORE -> {
-				alter.remove(StackOp.FLOAT);
-			}
-			case DSTORE -> {
-				alter.remove(StackOp.DOUBLE);
-			}
-			case ASTORE -> {
-				alter.remove(StackOp.REFERENCE_OR_RETURN_ADDRESS);
-			}
-			case RET -> {
-				alter.add(StackOp.RET);
-			}
-			default -> {
-				throw new UnsupportedOperationException("Unknown opcode " + opcode);
-			}
-		}
-
 	}
 
 	public void visitTableSwitchInsn(int min, int max, Label dflt, Label... labels) {
@@ -732,14 +478,14 @@ public class InstructionSpec extends MethodVisitor {
 		for (int i = 0; i < labels.length; i++) {
 			nodes[i] = new LabelNode(labels[i]);
 		}
-		StackAlter alter = alter(new TableSwitchInsnNode(min, max, new LabelNode(dflt), nodes));
+		StackAlter alter = alter(new TableSwitchInsnNode(min, max, new LabelNode(dflt), nodes), OpcodeEffects.of(TABLESWITCH));
 		alters.add(alter);
-		alter.remove(StackOp.INT);
-		alter.add(StackOp.JUMP);
-		alter.jumpTargets.add(dflt);
+		List<Label> targets = new ArrayList<>(labels.length + 1);
+		targets.add(dflt);
 		for (int i = 0; i < labels.length; i++) {
-			alter.jumpTargets.add(labels[i]);
+			targets.add(labels[i]);
 		}
+		alter.jumpTargets = targets;
 	}
 
 	public void visitTryCatchBlock(Label start, Label end, Label handler, String type) {
@@ -1,5 +1,6 @@
 package stackview;
 
+import java.util.List;
 import java.util.Map;
 
 import org.objectweb.asm.Label;
@@ -15,6 +16,9 @@ public class InstructionString {
 	}
 
 	InstructionSpec spec;
+	// The text of every instruction in spec.alters and the same text with class names shortened, textified together the first time one is needed.
+	private volatile String[] text;
+	private String[] compressed;
 
 	public String toString(AbstractInsnNode inst) {
 		TraceMethodVisitor trace = new TraceMethodVisitor(new TextifierLabeled(spec.labelNames));
@@ -23,6 +27,46 @@ public class InstructionString {
 
 	}
 
+	public String toString(int index) {
+		return text()[index];
+	}
+
+	/**
+	 * The text with every Lsome/Class; shortened to L...;, unchanged if it contains a string constant.
+	 */
+	public String compressed(int index) {
+		text();
+		return compressed[index];
+	}
+
+	private String[] text() {
+		String[] text = this.text;
+		if (text == null || text.length != spec.alters.size()) {
+			text = build();
+		}
+		return text;
+	}
+
+	private synchronized String[] build() {
+		if (text != null && text.length == spec.alters.size()) {
+			return text;
+		}
+		TextifierLabeled printer = new TextifierLabeled(spec.labelNames);
+		TraceMethodVisitor trace = new TraceMethodVisitor(printer);
+		List<Object> out = printer.getText();
+		String[] text = new String[spec.alters.size()];
+		String[] compressed = new String[text.length];
+		for (int i = 0; i < text.length; i++) {
+			int start = out.size();
+			spec.alters.get(i).node.accept(trace);
+			text[i] = out.size() > start ? out.get(start).toString().trim() : "";
+			compressed[i] = text[i].contains("\"") ? text[i] : text[i].replaceAll("L[a-zA-Z\\/$]*;", "L...;");
+		}
+		this.compressed = compressed;
+		this.text = text;
+		return text;
+	}
+
 	static class TextifierLabeled extends Textifier {
 
 		public TextifierLabeled(Map<Label, String> names) {
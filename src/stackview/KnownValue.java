@@ -0,0 +1,323 @@
+package stackview;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+public final class KnownValue {
+
+	public static final KnownValue UNKNOWN = new KnownValue(Kind.UNKNOWN, 0, 0, null, null, null, false);
+
+	public static final KnownValue NULL = new KnownValue(Kind.NULL, 0, 0, null, null, null, false);
+
+	private static final KnownValue[] SMALL_INTS = new KnownValue[256];
+
+	static {
+		for (int i = 0; i < SMALL_INTS.length; i++) {
+			SMALL_INTS[i] = new KnownValue(Kind.INT, i - 128, 0, null, null, null, false);
+		}
+	}
+
+	public static enum Kind {
+
+		UNKNOWN, INT, LONG, FLOAT, DOUBLE, NULL, REFERENCE, CONSTANT, SYMBOLIC;
+
+	}
+
+	private final Kind kind;
+
+	private final long integral;
+
+	private final double real;
+
+	private final String text;
+
+	private final KnownValue[] lengths;
+
+	private final Object constant;
+
+	private final boolean nonNull;
+
+	// The operator and the known operand of a symbolic value made by partial, the other operand is unknown.
+	private final String operator;
+
+	private final KnownValue operand;
+
+	// The text of a value made by partial, built on first use.
+	private String partialText;
+
+	// The value without history that knows this, made by the first untracked call and reused while the type matches.
+	private EntryValue untracked;
+
+	private KnownValue(Kind kind, long integral, double real, String text, KnownValue[] lengths, Object constant, boolean nonNull) {
+		this(kind, integral, real, text, lengths, constant, nonNull, null, null);
+	}
+
+	private KnownValue(Kind kind, long integral, double real, String text, KnownValue[] lengths, Object constant, boolean nonNull, String operator, KnownValue operand) {
+		this.kind = kind;
+		this.integral = integral;
+		this.real = real;
+		this.text = text;
+		this.lengths = lengths;
+		this.constant = constant;
+		this.nonNull = nonNull;
+		this.operator = operator;
+		this.operand = operand;
+	}
+
+	public static KnownValue ofInt(int value) {
+		if (value >= -128 && value < 128) {
+			return SMALL_INTS[value + 128];
+		}
+		return new KnownValue(Kind.INT, value, 0, null, null, null, false);
+	}
+
+	public static KnownValue ofLong(long value) {
+		return new KnownValue(Kind.LONG, value, 0, null, null, null, false);
+	}
+
+	public static KnownValue ofFloat(float value) {
+		return new KnownValue(Kind.FLOAT, 0, value, null, null, null, false);
+	}
+
+	public static KnownValue ofDouble(double value) {
+		return new KnownValue(Kind.DOUBLE, 0, value, null, null, null, false);
+	}
+
+	public static KnownValue reference(String type, boolean nonNull) {
+		return new KnownValue(Kind.REFERENCE, 0, 0, type, null, null, nonNull);
+	}
+
+	public static KnownValue array(String type, KnownValue... lengths) {
+		return new KnownValue(Kind.REFERENCE, 0, 0, type, lengths, null, true);
+	}
+
+	public static KnownValue constant(Object constant) {
+		if (constant instanceof Integer v) {
+			return ofInt(v);
+		} else if (constant instanceof Long v) {
+			return ofLong(v);
+		} else if (constant instanceof Float v) {
+			return ofFloat(v);
+		} else if (constant instanceof Double v) {
+			return ofDouble(v);
+		}
+		return new KnownValue(Kind.CONSTANT, 0, 0, null, null, constant, true);
+	}
+
+	public static KnownValue symbolic(String text) {
+		return new KnownValue(Kind.SYMBOLIC, 0, 0, text, null, null, false);
+	}
+
+	/**
+	 * The symbolic result of an operator with one known operand, such as Unknown+5 when the known operand is second. The text is only built
+	 * when it is read.
+	 */
+	public static KnownValue partial(String operator, KnownValue operand, boolean operandFirst) {
+		return new KnownValue(Kind.SYMBOLIC, operandFirst ? 1 : 0, 0, null, null, null, false, operator, operand);
+	}
+
+	/**
+	 * The bits of a known int, long, float or double as stack and local slots hold them without a KnownValue: the value for an int or long
+	 * and Double.doubleToLongBits for a float or double.
+	 */
+	static long bits(KnownValue value) {
+		return switch (value.kind) {
+			case INT, LONG -> value.integral;
+			case FLOAT, DOUBLE -> Double.doubleToLongBits(value.real);
+			default -> throw new IllegalArgumentException(value.kind + " is not a number.");
+		};
+	}
+
+	static KnownValue ofBits(Kind kind, long bits) {
+		return switch (kind) {
+			case INT -> ofInt((int) bits);
+			case LONG -> ofLong(bits);
+			case FLOAT -> ofFloat((float) Double.longBitsToDouble(bits));
+			case DOUBLE -> ofDouble(Double.longBitsToDouble(bits));
+			default -> throw new IllegalArgumentException(kind + " is not a number.");
+		};
+	}
+
+	/**
+	 * The hashCode of ofBits(kind, bits), without creating it.
+	 */
+	static int hashOfBits(Kind kind, long bits) {
+		boolean integral = kind == Kind.INT || kind == Kind.LONG;
+		return hash(kind, integral ? bits : 0, integral ? 0 : Double.longBitsToDouble(bits), null, null, null, false);
+	}
+
+	/**
+	 * True if this equals ofBits(kind, bits), without creating it.
+	 */
+	boolean equalsBits(Kind kind, long bits) {
+		if (this.kind != kind) {
+			return false;
+		}
+		return (kind == Kind.INT || kind == Kind.LONG ? integral == bits : Double.doubleToLongBits(real) == bits) && text == null && lengths == null;
+	}
+
+	public Kind getKind() {
+		return kind;
+	}
+
+	public boolean isKnown() {
+		return kind != Kind.UNKNOWN;
+	}
+
+	public boolean isInt() {
+		return kind == Kind.INT;
+	}
+
+	public boolean isLong() {
+		return kind == Kind.LONG;
+	}
+
+	public boolean isFloat() {
+		return kind == Kind.FLOAT;
+	}
+
+	public boolean isDouble() {
+		return kind == Kind.DOUBLE;
+	}
+
+	public boolean isNull() {
+		return kind == Kind.NULL;
+	}
+
+	/**
+	 * True if the value is a reference that is known not to be null, such as a newly created object or a constant.
+	 */
+	public boolean isNonNull() {
+		return nonNull;
+	}
+
+	public boolean isArray() {
+		return kind == Kind.REFERENCE && text.startsWith("[");
+	}
+
+	public int intValue() {
+		return (int) integral;
+	}
+
+	public long longValue() {
+		return integral;
+	}
+
+	public float floatValue() {
+		return (float) real;
+	}
+
+	public double doubleValue() {
+		return real;
+	}
+
+	/**
+	 * The descriptor or internal name of a known reference.
+	 */
+	public String getType() {
+		return kind == Kind.REFERENCE ? text : null;
+	}
+
+	/**
+	 * A value of the type without history that knows this. Values without history are never changed, so one is shared by every slot that
+	 * holds this known value.
+	 */
+	EntryValue untracked(EntryType type) {
+		EntryValue value = untracked;
+		if (value == null || value.getType() != type) {
+			value = new EntryValue(type, EntryHistory.UNTRACKED, this);
+			untracked = value;
+		}
+		return value;
+	}
+
+	private String text() {
+		if (operator == null) {
+			return text;
+		}
+		String built = partialText;
+		if (built == null) {
+			built = integral == 1 ? operand + operator + "Unknown" : "Unknown" + operator + operand;
+			partialText = built;
+		}
+		return built;
+	}
+
+	/**
+	 * Known array lengths from the outermost dimension inwards, null if the lengths are not tracked.
+	 */
+	public KnownValue[] getLengths() {
+		return lengths;
+	}
+
+	public Object getConstant() {
+		return constant;
+	}
+
+	public boolean equals(Object obj) {
+		if (this == obj) return true;
+		if (!(obj instanceof KnownValue other)) return false;
+		if (kind == Kind.SYMBOLIC) {
+			return other.kind == Kind.SYMBOLIC && text().equals(other.text());
+		}
+		return kind == other.kind && integral == other.integral && Double.doubleToLongBits(real) == Double.doubleToLongBits(other.real) //
+				&& Objects.equals(text, other.text) && Arrays.equals(lengths, other.lengths) && Objects.equals(constant, other.constant) && nonNull == other.nonNull;
+	}
+
+	public int hashCode() {
+		// Symbolic values hash by kind alone so their text is not built just to hash them, equals tells them apart.
+		if (kind == Kind.SYMBOLIC) {
+			return hash(kind, 0, 0, null, null, null, false);
+		}
+		return hash(kind, integral, real, text, lengths, constant, nonNull);
+	}
+
+	private static int hash(Kind kind, long integral, double real, String text, KnownValue[] lengths, Object constant, boolean nonNull) {
+		int hash = kind.hashCode();
+		hash = 31 * hash + Long.hashCode(integral);
+		hash = 31 * hash + Double.hashCode(real);
+		hash = 31 * hash + (text == null ? 0 : text.hashCode());
+		hash = 31 * hash + Arrays.hashCode(lengths);
+		hash = 31 * hash + (constant == null ? 0 : constant.hashCode());
+		hash = 31 * hash + Boolean.hashCode(nonNull);
+		return hash;
+	}
+
+	public String toString() {
+		switch (kind) {
+			case INT:
+				return "" + (int) integral;
+			case LONG:
+				return "" + integral;
+			case FLOAT:
+				return "" + (float) real;
+			case DOUBLE:
+				return "" + real;
+			case NULL:
+				return "Type: null";
+			case REFERENCE: {
+				if (lengths == null) {
+					return "Type: " + text;
+				}
+				StringBuilder sb = new StringBuilder("Type: ").append(text).append(" Length: ");
+				for (int i = 0; i < lengths.length; i++) {
+					if (lengths[i].isInt()) {
+						sb.append(lengths[i].intValue());
+					}
+					if (i + 1 < lengths.length) {
+						sb.append(",");
+					}
+				}
+				return sb.toString();
+			}
+			case CONSTANT:
+				return "" + constant;
+			case SYMBOLIC:
+				return text();
+			case UNKNOWN:
+			default:
+				return "Unknown";
+		}
+	}
+
+}
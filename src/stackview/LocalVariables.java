@@ -2,79 +2,227 @@ package stackview;
 
 import java.util.Arrays;
 
+import stackview.SimulationError.Code;
+
 public class LocalVariables {
 
-	public EntryValue[] entries;
+	private EntryValue[] entries;
+	// The number of a slot whose value is EntryValue.number, only at the first half of a long or double.
+	private long[] numbers;
 
 	public int count;
 
+	// Set while entries may be shared with a copy, it is cloned before the next write.
+	private boolean shared;
+
+	// Sum of slotHash over all slots, kept up to date by every write.
+	private int stateHash;
+
 	public LocalVariables(int max) {
 		count = max;
 		entries = new EntryValue[max];
+		numbers = new long[max];
 		for (int i = 0; i < entries.length; i++) {
 			entries[i] = new EntryValue(null);
+			stateHash += slotHash(i);
 		}
 	}
 
 	public LocalVariables(LocalVariables other) {
 		count = other.count;
-		entries = new EntryValue[count];
-		for (int i = 0; i < entries.length; i++) {
-			entries[i] = other.entries[i];
+		entries = other.entries;
+		numbers = other.numbers;
+		stateHash = other.stateHash;
+		shared = true;
+		other.shared = true;
+	}
+
+	private void own() {
+		if (shared) {
+			entries = entries.clone();
+			numbers = numbers.clone();
+			shared = false;
+		}
+	}
+
+	/**
+	 * Empties every slot, as a new LocalVariables starts.
+	 */
+	void clear(boolean trackHistory) {
+		own();
+		for (int i = 0; i < count; i++) {
+			put(i, trackHistory ? new EntryValue(null) : EntryValue.untracked(null), 0);
+		}
+	}
+
+	/**
+	 * The value of a slot, whatever its type.
+	 */
+	public EntryValue getEntry(int index) {
+		EntryValue value = entries[index];
+		return value.isNumber() ? EntryValue.ofNumber(value.getType(), numbers[index]) : value;
+	}
+
+	/**
+	 * The value of a slot as it is kept, EntryValue.number for a known number without history.
+	 */
+	EntryValue slot(int index) {
+		return entries[index];
+	}
+
+	/**
+	 * The number of a slot holding EntryValue.number.
+	 */
+	long numberAt(int index) {
+		return numbers[index];
+	}
+
+	/**
+	 * Replaces a single slot without any of the checks or second half handling of set.
+	 */
+	public void replace(int index, EntryValue value) {
+		replace(index, value, 0);
+	}
+
+	/**
+	 * replace for a value that may be EntryValue.number, with its number.
+	 */
+	void replace(int index, EntryValue value, long number) {
+		own();
+		put(index, value, number);
+	}
+
+	private void put(int index, EntryValue value, long number) {
+		if (value.storesAsNumber()) {
+			number = KnownValue.bits(value.getKnown());
+			value = EntryValue.number(value.getType());
 		}
+		stateHash -= slotHash(index);
+		entries[index] = value;
+		numbers[index] = number;
+		stateHash += slotHash(index);
+	}
+
+	private int slotHash(int index) {
+		return (entries[index].stateHash(numbers[index]) ^ index * 0x9E3779B9) * 0x85EBCA6B;
+	}
+
+	/**
+	 * Hash of the slot types and known values, ignoring history. Updated on every write so reading it is free.
+	 */
+	public int stateHash() {
+		return stateHash;
+	}
+
+	/**
+	 * True if every slot has the same type and known value, whatever the history.
+	 */
+	public boolean stateEquals(LocalVariables other) {
+		if (count != other.count || stateHash != other.stateHash) {
+			return false;
+		}
+		if (entries == other.entries && numbers == other.numbers) {
+			return true;
+		}
+		for (int i = 0; i < count; i++) {
+			if (!entries[i].stateEquals(numbers[i], other.entries[i], other.numbers[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * True if a slot holds a different value than the same slot of the given arrays, as copyTo left them.
+	 */
+	boolean changed(int index, EntryValue[] otherEntries, long[] otherNumbers) {
+		return entries[index] != otherEntries[index] || entries[index].isNumber() && numbers[index] != otherNumbers[index];
+	}
+
+	/**
+	 * Copies one slot into arrays of at least count slots, at the same index.
+	 */
+	void copyTo(int index, EntryValue[] intoEntries, long[] intoNumbers) {
+		intoEntries[index] = entries[index];
+		intoNumbers[index] = numbers[index];
 	}
 
 	public void set(int index, EntryValue type, int source) {
+		set(index, type, 0, source);
+	}
+
+	/**
+	 * set for a value that may be EntryValue.number, with its number.
+	 */
+	void set(int index, EntryValue type, long number, int source) {
 
 		if (type.getType() == EntryType.LONG_2ND || type.getType() == EntryType.DOUBLE_2ND) {
-			throw new IllegalStateException("Cannot set " + index + " to " + type);
+			throw new SimulationException(Code.LOCAL_TYPE, "Cannot set " + index + " to " + type);
 		}
 
-		setImpl(index, type, source);
+		setImpl(index, type, number, source);
 	}
 
-	private void setImpl(int index, EntryValue type, int source) {
-		if (index < 0) throw new IllegalStateException("Can't set local variable index " + index);
-		if (index >= count) throw new IllegalStateException("Local variable index " + index + " for " + type + " outside of range " + count);
+	private void setImpl(int index, EntryValue type, long number, int source) {
+		if (index < 0) throw new SimulationException(Code.LOCAL_RANGE, "Can't set local variable index " + index);
+		if (index >= count) throw new SimulationException(Code.LOCAL_RANGE, "Local variable index " + index + " for " + type + " outside of range " + count);
 		if (type.getType() == EntryType.DOUBLE) {
-			setImpl(index + 1, new EntryValue(EntryType.DOUBLE_2ND, type.getSourceHistory()), source);
+			setImpl(index + 1, secondHalf(EntryType.DOUBLE_2ND, type), 0, source);
 		}
 		if (type.getType() == EntryType.LONG) {
-			setImpl(index + 1, new EntryValue(EntryType.LONG_2ND, type.getSourceHistory()), source);
+			setImpl(index + 1, secondHalf(EntryType.LONG_2ND, type), 0, source);
 		}
 
+		own();
 		EntryValue old = entries[index];
 		if (old.getType() == EntryType.DOUBLE) {
-			entries[index + 1] = new EntryValue(null, source);
+			put(index + 1, cleared(type, source), 0);
 		}
 		if (old.getType() == EntryType.DOUBLE_2ND) {
-			entries[index - 1] = new EntryValue(null, source);
+			put(index - 1, cleared(type, source), 0);
 		}
 		if (old.getType() == EntryType.LONG) {
-			entries[index + 1] = new EntryValue(null, source);
+			put(index + 1, cleared(type, source), 0);
 		}
 		if (old.getType() == EntryType.LONG_2ND) {
-			entries[index - 1] = new EntryValue(null, source);
+			put(index - 1, cleared(type, source), 0);
 		}
-		entries[index] = type.move(source);
+		put(index, type.move(source), number);
 
 	}
 
+	private static EntryValue secondHalf(EntryType half, EntryValue first) {
+		return first.isTracked() ? new EntryValue(half, first.getSourceHistory()) : EntryValue.untracked(half);
+	}
+
+	// The value left in the other half of a long or double that is overwritten by value.
+	private static EntryValue cleared(EntryValue value, int source) {
+		return value.isTracked() ? new EntryValue(null, source) : EntryValue.untracked(null);
+	}
+
 	public EntryValue get(int index, EntryType type) {
+		slot(index, type);
+		return getEntry(index);
+	}
+
+	/**
+	 * get that leaves a known number as EntryValue.number, its number is numberAt(index).
+	 */
+	EntryValue slot(int index, EntryType type) {
 
 		if (type == EntryType.LONG_2ND || type == EntryType.DOUBLE_2ND) {
-			throw new IllegalStateException("Cannot set " + index + " to " + type);
+			throw new SimulationException(Code.LOCAL_TYPE, "Cannot set " + index + " to " + type);
 		}
 
 		return getImpl(index, type);
 	}
 
 	private EntryValue getImpl(int index, EntryType type) {
-		if (index < 0) throw new IllegalStateException("Can't set local variable index " + index);
-		if (index >= count) throw new IllegalStateException("Local variable index " + index + " for " + type + " outside of range " + count);
+		if (index < 0) throw new SimulationException(Code.LOCAL_RANGE, "Can't set local variable index " + index);
+		if (index >= count) throw new SimulationException(Code.LOCAL_RANGE, "Local variable index " + index + " for " + type + " outside of range " + count);
 
 		if (type != entries[index].getType()) {
-			throw new IllegalStateException("Unable to read " + type + " from local variable " + index + ", found " + entries[index]);
+			throw new SimulationException(Code.LOCAL_TYPE, "Unable to read " + type + " from local variable " + index + ", found " + entries[index]);
 		}
 
 		if (type == EntryType.DOUBLE) {
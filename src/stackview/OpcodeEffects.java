@@ -0,0 +1,489 @@
+package stackview;
+
+import static org.objectweb.asm.Opcodes.*;
+
+import stackview.Stack.StackOp;
+import stackview.StackAlter.Effect;
+
+/**
+ * The stack effects of every opcode whose effect does not depend on a descriptor, built once and shared by every instruction with that opcode.
+ */
+final class OpcodeEffects {
+
+	static final Effect NONE = effect(new StackAlter(null));
+
+	static final Effect FRAME = effect(new StackAlter(null).add(StackOp.FRAME));
+
+	private static final Effect[] EFFECTS = new Effect[256];
+
+	static {
+		for (int opcode = 0; opcode < EFFECTS.length; opcode++) {
+			EFFECTS[opcode] = compute(opcode);
+		}
+	}
+
+	private OpcodeEffects() {}
+
+	static Effect of(int opcode) {
+		Effect effect = opcode >= 0 && opcode < EFFECTS.length ? EFFECTS[opcode] : null;
+		if (effect == null) {
+			throw new UnsupportedOperationException("Unknown opcode " + opcode);
+		}
+		return effect;
+	}
+
+	private static Effect compute(int opcode) {
+		StackAlter alter = new StackAlter(null);
+		switch (opcode) {
+			case NOP -> {
+			}
+			case ACONST_NULL -> {
+				alter.add(StackOp.REFERENCE);
+			}
+			case ICONST_M1 -> {
+				alter.add(StackOp.INT);
+			}
+			case ICONST_0 -> {
+				alter.add(StackOp.INT);
+			}
+			case ICONST_1 -> {
+				alter.add(StackOp.INT);
+			}
+			case ICONST_2 -> {
+				alter.add(StackOp.INT);
+			}
+			case ICONST_3 -> {
+				alter.add(StackOp.INT);
+			}
+			case ICONST_4 -> {
+				alter.add(StackOp.INT);
+			}
+			case ICONST_5 -> {
+				alter.add(StackOp.INT);
+			}
+			case LCONST_0 -> {
+				alter.add(StackOp.LONG);
+			}
+			case LCONST_1 -> {
+				alter.add(StackOp.LONG);
+			}
+			case FCONST_0 -> {
+				alter.add(StackOp.FLOAT);
+			}
+			case FCONST_1 -> {
+				alter.add(StackOp.FLOAT);
+			}
+			case FCONST_2 -> {
+				alter.add(StackOp.FLOAT);
+			}
+			case DCONST_0 -> {
+				alter.add(StackOp.DOUBLE);
+			}
+			case DCONST_1 -> {
+				alter.add(StackOp.DOUBLE);
+			}
+			case IALOAD -> {
+				alter.remove(StackOp.INT, StackOp.REFERENCE).add(StackOp.INT);
+			}
+			case LALOAD -> {
+				alter.remove(StackOp.INT, StackOp.REFERENCE).add(StackOp.LONG);
+			}
+			case FALOAD -> {
+				alter.remove(StackOp.INT, StackOp.REFERENCE).add(StackOp.FLOAT);
+			}
+			case DALOAD -> {
+				alter.remove(StackOp.INT, StackOp.REFERENCE).add(StackOp.DOUBLE);
+			}
+			case AALOAD -> {
+				alter.remove(StackOp.INT, StackOp.REFERENCE).add(StackOp.REFERENCE);
+			}
+			case BALOAD -> {
+				alter.remove(StackOp.INT, StackOp.REFERENCE).add(StackOp.INT);
+			}
+			case CALOAD -> {
+				alter.remove(StackOp.INT, StackOp.REFERENCE).add(StackOp.INT);
+			}
+			case SALOAD -> {
+				alter.remove(StackOp.INT, StackOp.REFERENCE).add(StackOp.INT);
+			}
+			case IASTORE -> {
+				alter.remove(StackOp.INT, StackOp.INT, StackOp.REFERENCE);
+			}
+			case LASTORE -> {
+				alter.remove(StackOp.LONG, StackOp.INT, StackOp.REFERENCE);
+			}
+			case FASTORE -> {
+				alter.remove(StackOp.FLOAT, StackOp.INT, StackOp.REFERENCE);
+			}
+			case DASTORE -> {
+				alter.remove(StackOp.DOUBLE, StackOp.INT, StackOp.REFERENCE);
+			}
+			case AASTORE -> {
+				alter.remove(StackOp.REFERENCE, StackOp.INT, StackOp.REFERENCE);
+			}
+			case BASTORE -> {
+				alter.remove(StackOp.INT, StackOp.INT, StackOp.REFERENCE);
+			}
+			case CASTORE -> {
+				alter.remove(StackOp.INT, StackOp.INT, StackOp.REFERENCE);
+			}
+			case SASTORE -> {
+				alter.remove(StackOp.INT, StackOp.INT, StackOp.REFERENCE);
+			}
+			case POP -> {
+				alter.remove(StackOp.ANY_1);
+			}
+			case POP2 -> {
+				alter.remove(StackOp.ANY_2);
+			}
+			case DUP -> {
+				alter.remove(StackOp.ANY_1).add(StackOp.ANY_1, StackOp.ANY_1);
+			}
+			case DUP_X1 -> {
+				alter.remove(StackOp.ANY_1, StackOp.ANY_1).add(StackOp.ANY_1, StackOp.ANY_1, StackOp.ANY_1);
+			}
+			case DUP_X2 -> {
+				alter.remove(StackOp.ANY_1, StackOp.ANY_2).add(StackOp.ANY_1, StackOp.ANY_2, StackOp.ANY_1);
+			}
+			case DUP2 -> {
+				alter.remove(StackOp.ANY_2).add(StackOp.ANY_2, StackOp.ANY_2);
+			}
+			case DUP2_X1 -> {
+				alter.remove(StackOp.ANY_2, StackOp.ANY_1).add(StackOp.ANY_2, StackOp.ANY_1, StackOp.ANY_2);
+			}
+			case DUP2_X2 -> {
+				alter.remove(StackOp.ANY_2, StackOp.ANY_2).add(StackOp.ANY_2, StackOp.ANY_2, StackOp.ANY_2);
+			}
+			case SWAP -> {
+				alter.remove(StackOp.ANY_1, StackOp.ANY_1).add(StackOp.ANY_1, StackOp.ANY_1);
+			}
+			case IADD -> {
+				alter.remove(StackOp.INT, StackOp.INT).add(StackOp.INT);
+			}
+			case LADD -> {
+				alter.remove(StackOp.LONG, StackOp.LONG).add(StackOp.LONG);
+			}
+			case FADD -> {
+				alter.remove(StackOp.FLOAT, StackOp.FLOAT).add(StackOp.FLOAT);
+			}
+			case DADD -> {
+				alter.remove(StackOp.DOUBLE, StackOp.DOUBLE).add(StackOp.DOUBLE);
+			}
+			case ISUB -> {
+				alter.remove(StackOp.INT, StackOp.INT).add(StackOp.INT);
+			}
+			case LSUB -> {
+				alter.remove(StackOp.LONG, StackOp.LONG).add(StackOp.LONG);
+			}
+			case FSUB -> {
+				alter.remove(StackOp.FLOAT, StackOp.FLOAT).add(StackOp.FLOAT);
+			}
+			case DSUB -> {
+				alter.remove(StackOp.DOUBLE, StackOp.DOUBLE).add(StackOp.DOUBLE);
+			}
+			case IMUL -> {
+				alter.remove(StackOp.INT, StackOp.INT).add(StackOp.INT);
+			}
+			case LMUL -> {
+				alter.remove(StackOp.LONG, StackOp.LONG).add(StackOp.LONG);
+			}
+			case FMUL -> {
+				alter.remove(StackOp.FLOAT, StackOp.FLOAT).add(StackOp.FLOAT);
+			}
+			case DMUL -> {
+				alter.remove(StackOp.DOUBLE, StackOp.DOUBLE).add(StackOp.DOUBLE);
+			}
+			case IDIV -> {
+				alter.remove(StackOp.INT, StackOp.INT).add(StackOp.INT);
+			}
+			case LDIV -> {
+				alter.remove(StackOp.LONG, StackOp.LONG).add(StackOp.LONG);
+			}
+			case FDIV -> {
+				alter.remove(StackOp.FLOAT, StackOp.FLOAT).add(StackOp.FLOAT);
+			}
+			case DDIV -> {
+				alter.remove(StackOp.DOUBLE, StackOp.DOUBLE).add(StackOp.DOUBLE);
+			}
+			case IREM -> {
+				alter.remove(StackOp.INT, StackOp.INT).add(StackOp.INT);
+			}
+			case LREM -> {
+				alter.remove(StackOp.LONG, StackOp.LONG).add(StackOp.LONG);
+			}
+			case FREM -> {
+				alter.remove(StackOp.FLOAT, StackOp.FLOAT).add(StackOp.FLOAT);
+			}
+			case DREM -> {
+				alter.remove(StackOp.DOUBLE, StackOp.DOUBLE).add(StackOp.DOUBLE);
+			}
+			case INEG -> {
+				alter.remove(StackOp.INT).add(StackOp.INT);
+			}
+			case LNEG -> {
+				alter.remove(StackOp.LONG).add(StackOp.LONG);
+			}
+			case FNEG -> {
+				alter.remove(StackOp.FLOAT).add(StackOp.FLOAT);
+			}
+			case DNEG -> {
+				alter.remove(StackOp.DOUBLE).add(StackOp.DOUBLE);
+			}
+			case ISHL -> {
+				alter.remove(StackOp.INT, StackOp.INT).add(StackOp.INT);
+			}
+			case LSHL -> {
+				alter.remove(StackOp.INT, StackOp.LONG).add(StackOp.LONG);
+			}
+			case ISHR -> {
+				alter.remove(StackOp.INT, StackOp.INT).add(StackOp.INT);
+			}
+			case LSHR -> {
+				alter.remove(StackOp.INT, StackOp.LONG).add(StackOp.LONG);
+			}
+			case IUSHR -> {
+				alter.remove(StackOp.INT, StackOp.INT).add(StackOp.INT);
+			}
+			case LUSHR -> {
+				alter.remove(StackOp.INT, StackOp.LONG).add(StackOp.LONG);
+			}
+			case IAND -> {
+				alter.remove(StackOp.INT, StackOp.INT).add(StackOp.INT);
+			}
+			case LAND -> {
+				alter.remove(StackOp.LONG, StackOp.LONG).add(StackOp.LONG);
+			}
+			case IOR -> {
+				alter.remove(StackOp.INT, StackOp.INT).add(StackOp.INT);
+			}
+			case LOR -> {
+				alter.remove(StackOp.LONG, StackOp.LONG).add(StackOp.LONG);
+			}
+			case IXOR -> {
+				alter.remove(StackOp.INT, StackOp.INT).add(StackOp.INT);
+			}
+			case LXOR -> {
+				alter.remove(StackOp.LONG, StackOp.LONG).add(StackOp.LONG);
+			}
+			case I2L -> {
+				alter.remove(StackOp.INT).add(StackOp.LONG);
+			}
+			case I2F -> {
+				alter.remove(StackOp.INT).add(StackOp.FLOAT);
+			}
+			case I2D -> {
+				alter.remove(StackOp.INT).add(StackOp.DOUBLE);
+			}
+			case L2I -> {
+				alter.remove(StackOp.LONG).add(StackOp.INT);
+			}
+			case L2F -> {
+				alter.remove(StackOp.LONG).add(StackOp.FLOAT);
+			}
+			case L2D -> {
+				alter.remove(StackOp.LONG).add(StackOp.DOUBLE);
+			}
+			case F2I -> {
+				alter.remove(StackOp.FLOAT).add(StackOp.INT);
+			}
+			case F2L -> {
+				alter.remove(StackOp.FLOAT).add(StackOp.LONG);
+			}
+			case F2D -> {
+				alter.remove(StackOp.FLOAT).add(StackOp.DOUBLE);
+			}
+			case D2I -> {
+				alter.remove(StackOp.DOUBLE).add(StackOp.INT);
+			}
+			case D2L -> {
+				alter.remove(StackOp.DOUBLE).add(StackOp.LONG);
+			}
+			case D2F -> {
+				alter.remove(StackOp.DOUBLE).add(StackOp.FLOAT);
+			}
+			case I2B -> {
+				alter.remove(StackOp.INT).add(StackOp.INT);
+			}
+			case I2C -> {
+				alter.remove(StackOp.INT).add(StackOp.INT);
+			}
+			case I2S -> {
+				alter.remove(StackOp.INT).add(StackOp.INT);
+			}
+			case LCMP -> {
+				alter.remove(StackOp.LONG, StackOp.LONG).add(StackOp.INT);
+			}
+			case FCMPL -> {
+				alter.remove(StackOp.FLOAT, StackOp.FLOAT).add(StackOp.INT);
+			}
+			case FCMPG -> {
+				alter.remove(StackOp.FLOAT, StackOp.FLOAT).add(StackOp.INT);
+			}
+			case DCMPL -> {
+				alter.remove(StackOp.DOUBLE, StackOp.DOUBLE).add(StackOp.INT);
+			}
+			case DCMPG -> {
+				alter.remove(StackOp.DOUBLE, StackOp.DOUBLE).add(StackOp.INT);
+			}
+			case IRETURN -> {
+				alter.remove(StackOp.INT).add(StackOp.CLEAR);
+			}
+			case LRETURN -> {
+				alter.remove(StackOp.LONG).add(StackOp.CLEAR);
+			}
+			case FRETURN -> {
+				alter.remove(StackOp.FLOAT).add(StackOp.CLEAR);
+			}
+			case DRETURN -> {
+				alter.remove(StackOp.DOUBLE).add(StackOp.CLEAR);
+			}
+			case ARETURN -> {
+				alter.remove(StackOp.REFERENCE).add(StackOp.CLEAR);
+			}
+			case RETURN -> {
+				alter.add(StackOp.CLEAR);
+			}
+			case ARRAYLENGTH -> {
+				alter.remove(StackOp.REFERENCE).add(StackOp.INT);
+			}
+			case ATHROW -> {
+				alter.remove(StackOp.REFERENCE).add(StackOp.CLEAR).add(StackOp.REFERENCE).add(StackOp.THROW);
+			}
+			case MONITORENTER -> {
+				alter.remove(StackOp.REFERENCE);
+			}
+			case MONITOREXIT -> {
+				alter.remove(StackOp.REFERENCE);
+			}
+
+			case BIPUSH -> {
+				alter.add(StackOp.INT);
+			}
+			case SIPUSH -> {
+				alter.add(StackOp.INT);
+			}
+			case NEWARRAY -> {
+				alter.remove(StackOp.INT).add(StackOp.REFERENCE);
+			}
+
+			case IFEQ -> {
+				alter.remove(StackOp.INT).add(StackOp.JUMP);
+			}
+			case IFNE -> {
+				alter.remove(StackOp.INT).add(StackOp.JUMP);
+			}
+			case IFLT -> {
+				alter.remove(StackOp.INT).add(StackOp.JUMP);
+			}
+			case IFGE -> {
+				alter.remove(StackOp.INT).add(StackOp.JUMP);
+			}
+			case IFGT -> {
+				alter.remove(StackOp.INT).add(StackOp.JUMP);
+			}
+			case IFLE -> {
+				alter.remove(StackOp.INT).add(StackOp.JUMP);
+			}
+			case IF_ICMPEQ -> {
+				alter.remove(StackOp.INT, StackOp.INT).add(StackOp.JUMP);
+			}
+			case IF_ICMPNE -> {
+				alter.remove(StackOp.INT, StackOp.INT).add(StackOp.JUMP);
+			}
+			case IF_ICMPLT -> {
+				alter.remove(StackOp.INT, StackOp.INT).add(StackOp.JUMP);
+			}
+			case IF_ICMPGE -> {
+				alter.remove(StackOp.INT, StackOp.INT).add(StackOp.JUMP);
+			}
+			case IF_ICMPGT -> {
+				alter.remove(StackOp.INT, StackOp.INT).add(StackOp.JUMP);
+			}
+			case IF_ICMPLE -> {
+				alter.remove(StackOp.INT, StackOp.INT).add(StackOp.JUMP);
+			}
+			case IF_ACMPEQ -> {
+				alter.remove(StackOp.REFERENCE, StackOp.REFERENCE).add(StackOp.JUMP);
+			}
+			case IF_ACMPNE -> {
+				alter.remove(StackOp.REFERENCE, StackOp.REFERENCE).add(StackOp.JUMP);
+			}
+			case GOTO -> {
+				alter.add(StackOp.JUMP);
+			}
+			case JSR -> {
+				alter.add(StackOp.RETURN_ADDRESS).add(StackOp.JUMP);
+			}
+			case IFNULL -> {
+				alter.remove(StackOp.REFERENCE).add(StackOp.JUMP);
+			}
+			case IFNONNULL -> {
+				alter.remove(StackOp.REFERENCE).add(StackOp.JUMP);
+			}
+
+			case NEW -> {
+				alter.add(StackOp.REFERENCE);
+			}
+			case ANEWARRAY -> {
+				alter.remove(StackOp.INT).add(StackOp.REFERENCE);
+			}
+			case CHECKCAST -> {
+				alter.remove(StackOp.REFERENCE).add(StackOp.REFERENCE);
+			}
+			case INSTANCEOF -> {
+				alter.remove(StackOp.REFERENCE).add(StackOp.INT);
+			}
+
+			case ILOAD -> {
+				alter.add(StackOp.INT);
+			}
+			case LLOAD -> {
+				alter.add(StackOp.LONG);
+			}
+			case FLOAD -> {
+				alter.add(StackOp.FLOAT);
+			}
+			case DLOAD -> {
+				alter.add(StackOp.DOUBLE);
+			}
+			case ALOAD -> {
+				alter.add(StackOp.REFERENCE);
+			}
+			case ISTORE -> {
+				alter.remove(StackOp.INT);
+			}
+			case LSTORE -> {
+				alter.remove(StackOp.LONG);
+			}
+			case FSTORE -> {
+				alter.remove(StackOp.FLOAT);
+			}
+			case DSTORE -> {
+				alter.remove(StackOp.DOUBLE);
+			}
+			case ASTORE -> {
+				alter.remove(StackOp.REFERENCE_OR_RETURN_ADDRESS);
+			}
+			case RET -> {
+				alter.add(StackOp.RET);
+			}
+			case TABLESWITCH, LOOKUPSWITCH -> {
+				alter.remove(StackOp.INT).add(StackOp.JUMP);
+			}
+			case IINC -> {
+			}
+			default -> {
+				return null;
+			}
+		}
+		if (alter.remove.length == 0 && alter.add.length == 0) {
+			return NONE;
+		}
+		return effect(alter);
+	}
+
+	private static Effect effect(StackAlter alter) {
+		return new Effect(alter.remove, alter.add, alter.flags);
+	}
+
+}
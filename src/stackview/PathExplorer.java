@@ -0,0 +1,221 @@
+package stackview;
+
+import static org.objectweb.asm.Opcodes.*;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+import org.objectweb.asm.Label;
+import org.objectweb.asm.tree.TryCatchBlockNode;
+
+import stackview.Simulator.State;
+
+/**
+ * Follows every path through a method by forking the simulator at branches whose direction depends on unknown values. Forks are copies of the
+ * simulator and share everything up to the fork until one side writes, so the cost of a fork does not depend on how much state came before it.
+ */
+public class PathExplorer {
+
+	public static enum Kind {
+
+		RETURN, THROW, ERROR;
+
+	}
+
+	/**
+	 * A way the method can end. The value is the returned value or thrown exception, null for a void return or an error.
+	 */
+	public static record Terminal(Kind kind, int instruction, EntryType type, KnownValue value, String error) {
+
+		public String toString() {
+			return switch (kind) {
+				case RETURN -> "return" + (type == null ? "" : " " + type + (value.isKnown() ? "=" + value : ""));
+				case THROW -> "throw " + (value.isKnown() ? value : type);
+				case ERROR -> "error at " + instruction + " " + error;
+			};
+		}
+
+	}
+
+	public final InstructionSpec insts;
+
+	public int maxPaths = 1000;
+	public long maxSteps = 1_000_000;
+	public long maxMillis = 1000;
+	public boolean keepHistory;
+	// Errors already end paths as ERROR terminals, so by default they are not logged too.
+	public Simulator.ErrorSink errorSink = Simulator.ErrorSink.IGNORE;
+
+	private final Set<Terminal> terminals = new LinkedHashSet<>();
+	private final Set<Simulator.StateKey> visited = new HashSet<>();
+	private int paths;
+	private long steps;
+	private int duplicates;
+	private int maxStackDepth;
+	private String stopReason;
+
+	public PathExplorer(InstructionSpec insts) {
+		this.insts = insts;
+	}
+
+	public PathExplorer run() {
+		long deadline = System.nanoTime() + maxMillis * 1_000_000;
+		ArrayDeque<Simulator> pending = new ArrayDeque<>();
+		Simulator start = new Simulator(insts);
+		start.trackHistory = keepHistory;
+		start.errorSink = errorSink;
+		start.initLocals();
+		pending.push(start);
+		paths = 1;
+		while (!pending.isEmpty()) {
+			Simulator sim = pending.pop();
+			while (sim != null) {
+				if (steps >= maxSteps) {
+					stopReason = "Step budget of " + maxSteps + " reached.";
+					return this;
+				}
+				if ((steps & 1023) == 0 && System.nanoTime() > deadline) {
+					stopReason = "Time budget of " + maxMillis + " ms reached.";
+					return this;
+				}
+				sim = step(sim, pending);
+				if (stopReason != null) {
+					return this;
+				}
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * Runs one instruction, returning the simulator to continue with or null when this path has ended.
+	 */
+	private Simulator step(Simulator sim, ArrayDeque<Simulator> pending) {
+		if (sim.state == State.POP) {
+			sim.performPops();
+		}
+		if (sim.state == State.PUSH) {
+			sim.performPushes();
+			steps++;
+			maxStackDepth = Math.max(maxStackDepth, sim.stack.getSize());
+		}
+		if (sim.state == State.ERRORED) {
+			terminals.add(new Terminal(Kind.ERROR, sim.instruction, null, null, sim.errorMessage));
+			return null;
+		}
+		if (sim.state == State.FINISHED) {
+			terminals.add(returned(sim));
+			return null;
+		}
+		if (sim.state != State.JUMP) {
+			terminals.add(new Terminal(Kind.ERROR, sim.instruction, null, null, "Unexpected state " + sim.state));
+			return null;
+		}
+
+		int opcode = sim.getInstruction().node.getOpcode();
+		if (opcode == ATHROW) {
+			return fork(sim, throwTargets(sim), false, pending);
+		}
+		Optional<Label> target;
+		try {
+			target = sim.getExpectedJumpTarget();
+		} catch (Exception e) {
+			terminals.add(new Terminal(Kind.ERROR, sim.instruction, null, null, e.getMessage()));
+			return null;
+		}
+		if (target != null) {
+			sim.performJump(target.orElse(null));
+			return sim;
+		}
+		boolean fallThrough = opcode != TABLESWITCH && opcode != LOOKUPSWITCH && opcode != RET && opcode != GOTO && opcode != JSR;
+		return fork(sim, sim.getJumps(), fallThrough, pending);
+	}
+
+	/**
+	 * Continues with the first successor and queues the rest, skipping any whose state has already been explored. Queueing a path past the
+	 * budget stops exploration instead, before the path is copied.
+	 */
+	private Simulator fork(Simulator sim, List<Label> targets, boolean fallThrough, ArrayDeque<Simulator> pending) {
+		int successors = targets.size() + (fallThrough ? 1 : 0);
+		Simulator next = null;
+		for (int i = 0; i < successors; i++) {
+			if (next != null && paths >= maxPaths) {
+				stopReason = "Path budget of " + maxPaths + " reached.";
+				return null;
+			}
+			// The fall through successor is last, so every copy is taken before the original jumps.
+			Simulator fork = i < targets.size() ? new Simulator(sim) : sim;
+			fork.performJump(i < targets.size() ? targets.get(i) : null);
+			if (!fork.state.done && !visited.add(fork.stateKey())) {
+				duplicates++;
+				continue;
+			}
+			if (next == null) {
+				next = fork;
+			} else {
+				pending.push(fork);
+				paths++;
+			}
+		}
+		return next;
+	}
+
+	private List<Label> throwTargets(Simulator sim) {
+		EntryValue thrown = sim.stack.entries.get(sim.stack.getSize() - 1);
+		String type = thrown.getKnown().getType();
+		// Every handler that might catch it is a successor, up to the first that surely does and so leaves none after it and no throw out.
+		List<Label> handlers = new ArrayList<>();
+		for (TryCatchBlockNode tryCatch : sim.getHandlers()) {
+			handlers.add(tryCatch.handler.getLabel());
+			if (Simulator.catches(tryCatch, type)) {
+				return handlers;
+			}
+		}
+		terminals.add(new Terminal(Kind.THROW, sim.instruction, EntryType.REFERENCE, thrown.getKnown(), null));
+		return handlers;
+	}
+
+	private Terminal returned(Simulator sim) {
+		if (sim.instruction < insts.alters.size() && !sim.popped.isEmpty() && sim.getInstruction().node.getOpcode() != RETURN) {
+			EntryValue value = sim.getPopped(0);
+			return new Terminal(Kind.RETURN, sim.instruction, value.getType(), value.getKnown(), null);
+		}
+		return new Terminal(Kind.RETURN, Math.min(sim.instruction, insts.alters.size() - 1), null, null, null);
+	}
+
+	/**
+	 * Every distinct way the method ended on the explored paths, in the order they were found.
+	 */
+	public List<Terminal> getTerminals() {
+		return List.copyOf(terminals);
+	}
+
+	/**
+	 * Why exploration stopped before every path was followed, null if it finished.
+	 */
+	public String getStopReason() {
+		return stopReason;
+	}
+
+	public int getPaths() {
+		return paths;
+	}
+
+	public long getSteps() {
+		return steps;
+	}
+
+	public int getDuplicates() {
+		return duplicates;
+	}
+
+	public int getMaxStackDepth() {
+		return maxStackDepth;
+	}
+
+}
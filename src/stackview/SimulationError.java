@@ -0,0 +1,19 @@
+package stackview;
+
+/**
+ * Why a simulator stopped in State.ERRORED. The cause is only kept for errors the simulator did not expect, which are bugs rather than
+ * unsupported bytecode.
+ */
+public record SimulationError(Code code, int instruction, String message, Throwable cause) {
+
+	public static enum Code {
+
+		STACK_UNDERFLOW, STACK_OVERFLOW, STACK_TYPE, LOCAL_RANGE, LOCAL_TYPE, FRAME, UNSUPPORTED, STATE_ORDER, INTERNAL;
+
+	}
+
+	public String toString() {
+		return code + " at " + instruction + ": " + message;
+	}
+
+}
@@ -0,0 +1,24 @@
+package stackview;
+
+import stackview.SimulationError.Code;
+
+/**
+ * Thrown by the stack, locals and simulator when the bytecode cannot be simulated. These are expected on real classes and caught a few frames
+ * up, so no stack trace is filled in.
+ */
+public class SimulationException extends IllegalStateException {
+
+	private static final long serialVersionUID = 1L;
+
+	public final Code code;
+
+	public SimulationException(Code code, String message) {
+		super(message);
+		this.code = code;
+	}
+
+	public synchronized Throwable fillInStackTrace() {
+		return this;
+	}
+
+}
@@ -0,0 +1,292 @@
+package stackview;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.objectweb.asm.Type;
+
+import stackview.SimulationError.Code;
+import stackview.Simulator.State;
+
+/**
+ * Reads a trace written by TraceRecorder. Any step is rebuilt by reading the nearest checkpoint at or before it and applying the steps after
+ * that, so opening a trace costs the same however long the run was. Only the records between one checkpoint and the next are memory mapped at a
+ * time, which keeps traces larger than the heap or than a single mapping readable.
+ * <p>
+ * The file is the magic and version, the owner, name and descriptor of the method, the checkpoint interval and the instruction count, max stack
+ * and locals of the method, then one record per step. A record is the instruction and state, then either the whole stack and every local for a
+ * checkpoint or the number of stack slots kept from the step before, the slots above them and the locals that changed. Strings are indices into
+ * a table stored after the records, followed by the offset of every checkpoint, the step count and the offset of that table.
+ */
+public class SimulationTrace implements Closeable {
+
+	public static final int MAGIC = 0x53565452;
+	static final int END_MAGIC = 0x53565445;
+	public static final int VERSION = 1;
+	public static final int DEFAULT_CHECKPOINT_INTERVAL = 1024;
+
+	static final byte STEP = 1;
+	static final byte CHECKPOINT = 2;
+
+	static final byte CONSTANT_STRING = 0;
+	static final byte CONSTANT_TYPE = 1;
+	static final byte CONSTANT_TEXT = 2;
+
+	private static final EntryType[] TYPES = EntryType.values();
+	private static final KnownValue.Kind[] KINDS = KnownValue.Kind.values();
+	private static final State[] STATES = State.values();
+	private static final Code[] CODES = Code.values();
+
+	private final FileChannel channel;
+
+	public final String owner;
+	public final String name;
+	public final String descriptor;
+	private final int checkpointInterval;
+	private final int instructions;
+	private final int maxStack;
+	private final int maxLocals;
+	private final String[] strings;
+	private final long[] checkpoints;
+	private final long footer;
+	private final long steps;
+
+	// The records of one checkpoint, mapped on demand.
+	private ByteBuffer segment;
+	private int segmentCheckpoint = -1;
+	// The last step rebuilt and where its records end, so stepping forward only reads the records in between.
+	private Simulator cursor;
+	private long cursorStep = -1;
+	private int cursorPosition;
+
+	public SimulationTrace(Path file) throws IOException {
+		channel = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			long size = channel.size();
+			if (size < 28) throw new IOException(file + " is not a complete trace.");
+			ByteBuffer end = read(size - 20, 20);
+			steps = end.getLong();
+			footer = end.getLong();
+			if (end.getInt() != END_MAGIC || footer < 8 || footer > size - 20) throw new IOException(file + " is not a complete trace.");
+
+			ByteBuffer in = map(footer, size - 20);
+			strings = new String[readVarint(in)];
+			for (int i = 0; i < strings.length; i++) {
+				strings[i] = readUtf(in);
+			}
+			checkpoints = new long[readVarint(in)];
+			for (int i = 0; i < checkpoints.length; i++) {
+				checkpoints[i] = in.getLong();
+			}
+			if (checkpoints.length == 0) throw new IOException(file + " has no steps.");
+
+			in = map(0, checkpoints[0]);
+			if (in.getInt() != MAGIC) throw new IOException(file + " is not a trace.");
+			int version = in.getInt();
+			if (version != VERSION) throw new IOException("Unsupported trace version " + version);
+			owner = readUtf(in);
+			name = readUtf(in);
+			descriptor = readUtf(in);
+			checkpointInterval = readVarint(in);
+			instructions = readVarint(in);
+			maxStack = readVarint(in);
+			maxLocals = readVarint(in);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * The number of recorded steps, the first being the state the simulator was in when recording started.
+	 */
+	public long getSteps() {
+		return steps;
+	}
+
+	/**
+	 * Rebuilds the state after a step. The spec must be of the method the trace was recorded from. The values have no history, and the popped
+	 * values of the step are not recorded.
+	 */
+	public synchronized Simulator stateAt(long step, InstructionSpec insts) {
+		if (step < 0 || step >= steps) throw new IndexOutOfBoundsException("Step " + step + " of " + steps);
+		if (insts.alters.size() != instructions || insts.stackSize != maxStack || insts.locals != maxLocals) {
+			throw new IllegalArgumentException("Trace was recorded from a different method than " + insts.descriptor);
+		}
+		int checkpoint = (int) (step / checkpointInterval);
+		ByteBuffer in = segment(checkpoint);
+		Simulator sim;
+		long i;
+		if (cursor != null && cursor.insts == insts && cursorStep <= step && cursorStep / checkpointInterval == checkpoint) {
+			sim = cursor;
+			i = cursorStep + 1;
+			in.position(cursorPosition);
+		} else {
+			sim = new Simulator(insts);
+			sim.trackHistory = false;
+			i = (long) checkpoint * checkpointInterval;
+			in.position(0);
+		}
+		for (; i <= step; i++) {
+			readRecord(in, sim);
+		}
+		cursor = sim;
+		cursorStep = step;
+		cursorPosition = in.position();
+		// The copy shares the cursor's state until either is written to.
+		return new Simulator(sim);
+	}
+
+	private void readRecord(ByteBuffer in, Simulator sim) {
+		byte kind = in.get();
+		int instruction = readVarint(in);
+		State state = STATES[in.get()];
+		SimulationError error = null;
+		if (state == State.ERRORED) {
+			int code = in.get();
+			String message = readString(in);
+			error = new SimulationError(code < 0 ? Code.INTERNAL : CODES[code], instruction, message, null);
+		}
+		readStack(in, sim.stack);
+		if (kind == CHECKPOINT) {
+			for (int slot = 0; slot < maxLocals; slot++) {
+				sim.locals.replace(slot, readEntry(in));
+			}
+		} else {
+			for (int changed = readVarint(in); changed > 0; changed--) {
+				int slot = readVarint(in);
+				sim.locals.replace(slot, readEntry(in));
+			}
+		}
+		sim.restore(instruction, state, error, Simulator.Popped.NONE);
+	}
+
+	private ByteBuffer segment(int checkpoint) {
+		if (checkpoint != segmentCheckpoint) {
+			try {
+				segment = map(checkpoints[checkpoint], checkpoint + 1 < checkpoints.length ? checkpoints[checkpoint + 1] : footer);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			segmentCheckpoint = checkpoint;
+			cursor = null;
+		}
+		return segment;
+	}
+
+	private ByteBuffer map(long from, long to) throws IOException {
+		if (to - from > Integer.MAX_VALUE) throw new IOException("Trace section of " + (to - from) + " bytes is too large to map.");
+		return channel.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+	}
+
+	private ByteBuffer read(long from, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, from + buffer.position()) < 0) throw new IOException("Unexpected end of trace.");
+		}
+		return buffer.flip();
+	}
+
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	private void readStack(ByteBuffer in, Stack stack) {
+		int keep = readVarint(in);
+		byte[] types = new byte[readVarint(in)];
+		EntryValue[] values = new EntryValue[types.length];
+		for (int i = 0; i < types.length; i++) {
+			EntryType type = TYPES[in.get() - 1];
+			types[i] = (byte) type.ordinal();
+			if (type == EntryType.LONG_2ND || type == EntryType.DOUBLE_2ND) {
+				values[i] = i > 0 ? values[i - 1] : stack.copyValues(keep - 1)[0];
+			} else {
+				values[i] = EntryValue.untracked(type).known(readKnown(in));
+			}
+		}
+		stack.restore(keep, types, values);
+	}
+
+	private EntryValue readEntry(ByteBuffer in) {
+		int tag = in.get();
+		EntryType type = tag == 0 ? null : TYPES[tag - 1];
+		if (type == null || type == EntryType.LONG_2ND || type == EntryType.DOUBLE_2ND) {
+			return EntryValue.untracked(type);
+		}
+		return EntryValue.untracked(type).known(readKnown(in));
+	}
+
+	private KnownValue readKnown(ByteBuffer in) {
+		return switch (KINDS[in.get()]) {
+			case UNKNOWN -> KnownValue.UNKNOWN;
+			case NULL -> KnownValue.NULL;
+			case INT -> KnownValue.ofInt((int) readVarlong(in));
+			case LONG -> KnownValue.ofLong(readVarlong(in));
+			case FLOAT -> KnownValue.ofFloat(in.getFloat());
+			case DOUBLE -> KnownValue.ofDouble(in.getDouble());
+			case REFERENCE -> {
+				String type = readString(in);
+				boolean nonNull = in.get() != 0;
+				int lengths = readVarint(in);
+				if (lengths == 0) {
+					yield KnownValue.reference(type, nonNull);
+				}
+				KnownValue[] known = new KnownValue[lengths - 1];
+				for (int i = 0; i < known.length; i++) {
+					known[i] = readKnown(in);
+				}
+				yield KnownValue.array(type, known);
+			}
+			case CONSTANT -> {
+				byte kind = in.get();
+				String text = readString(in);
+				yield switch (kind) {
+					case CONSTANT_STRING -> KnownValue.constant(text);
+					case CONSTANT_TYPE -> KnownValue.constant(Type.getType(text));
+					default -> KnownValue.symbolic(text);
+				};
+			}
+			case SYMBOLIC -> KnownValue.symbolic(readString(in));
+		};
+	}
+
+	private String readString(ByteBuffer in) {
+		int index = readVarint(in);
+		return index == 0 ? null : strings[index - 1];
+	}
+
+	private static String readUtf(ByteBuffer in) {
+		byte[] bytes = new byte[readVarint(in)];
+		in.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static int readVarint(ByteBuffer in) {
+		int value = 0;
+		for (int shift = 0;; shift += 7) {
+			byte b = in.get();
+			value |= (b & 0x7F) << shift;
+			if (b >= 0) {
+				return value;
+			}
+		}
+	}
+
+	private static long readVarlong(ByteBuffer in) {
+		long value = 0;
+		for (int shift = 0;; shift += 7) {
+			byte b = in.get();
+			value |= (long) (b & 0x7F) << shift;
+			if (b >= 0) {
+				return value >>> 1 ^ -(value & 1);
+			}
+		}
+	}
+
+}
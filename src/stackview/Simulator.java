@@ -3,7 +3,7 @@ package stackview;
 import static org.objectweb.asm.Opcodes.*;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
 
@@ -25,6 +25,7 @@ import org.objectweb.asm.tree.TryCatchBlockNode;
 import org.objectweb.asm.tree.TypeInsnNode;
 import org.objectweb.asm.tree.VarInsnNode;
 
+import stackview.SimulationError.Code;
 import stackview.Stack.StackOp;
 
 public class Simulator {
@@ -36,6 +37,31 @@ public class Simulator {
 	StackOp[] initParams;
 	public State state = State.INIT;;
 	public String errorMessage;
+	public SimulationError error;
+	// Errors are kept in error and errorMessage for the caller to show, set STDERR to also print them.
+	public ErrorSink errorSink = ErrorSink.IGNORE;
+	// When off, values are the shared untracked ones from EntryValue and a step with nothing known allocates nothing. Return addresses are always tracked, ret needs them.
+	public boolean trackHistory = true;
+	// When set, every phase is written to the trace once it has been performed.
+	public TraceRecorder recorder;
+
+	/**
+	 * Told about every error a simulator stops on. The simulator has already moved to State.ERRORED when it is called.
+	 */
+	public static interface ErrorSink {
+
+		public static final ErrorSink IGNORE = (sim, error) -> {};
+		// Opt in, one line per error with the stack trace only for errors that point at a bug in the simulator.
+		public static final ErrorSink STDERR = (sim, error) -> {
+			System.err.println(error);
+			if (error.cause() != null) {
+				error.cause().printStackTrace();
+			}
+		};
+
+		void report(Simulator sim, SimulationError error);
+
+	}
 
 	public static enum State {
 
@@ -66,10 +92,22 @@ public class Simulator {
 	}
 
 	public Simulator(Simulator s) {
-		become(s);
+		this(s, true);
+	}
+
+	private Simulator(Simulator s, boolean sharePopped) {
+		copy(s);
+		if (sharePopped) {
+			restore(s.sharePopped());
+		}
 	}
 
 	public void become(Simulator s) {
+		copy(s);
+		restore(s.sharePopped());
+	}
+
+	private void copy(Simulator s) {
 		this.insts = s.insts;
 		this.locals = new LocalVariables(s.locals);
 		this.stack = new Stack(s.stack);
@@ -77,8 +115,56 @@ public class Simulator {
 		this.initParams = s.initParams;
 		this.state = s.state;
 		this.errorMessage = s.errorMessage;
-		this.popped = new ArrayList<>(s.popped);
-		this.popped2 = new ArrayList<>(s.popped2);
+		this.error = s.error;
+		this.errorSink = s.errorSink;
+		this.trackHistory = s.trackHistory;
+	}
+
+	/**
+	 * The values popped by an instruction, shared by the simulators and journals that hold it until one of them writes. The numbers are those
+	 * of the values that are EntryValue.number, popped2Numbers holding two per pair.
+	 */
+	static record Popped(List<EntryValue> popped, long[] poppedNumbers, List<EntryValue[]> popped2, long[] popped2Numbers) {
+
+		static final Popped NONE = new Popped(List.of(), new long[0], List.of(), new long[0]);
+
+	}
+
+	/**
+	 * The popped values of the current instruction, shared with this simulator until either writes.
+	 */
+	Popped sharePopped() {
+		poppedShared = true;
+		return new Popped(popped, poppedNumbers, popped2, popped2Numbers);
+	}
+
+	void restore(int instruction, State state, SimulationError error, Popped popped) {
+		this.instruction = instruction;
+		this.state = state;
+		this.error = error;
+		this.errorMessage = error == null ? null : error.message();
+		restore(popped);
+	}
+
+	private void restore(Popped popped) {
+		this.popped = popped.popped();
+		this.poppedNumbers = popped.poppedNumbers();
+		this.popped2 = popped.popped2();
+		this.popped2Numbers = popped.popped2Numbers();
+		this.poppedShared = true;
+	}
+
+	/**
+	 * Starts the method over without allocating, as a new simulator of the same method with the same settings would.
+	 */
+	public void reset() {
+		instruction = 0;
+		state = State.INIT;
+		errorMessage = null;
+		error = null;
+		stack.clear();
+		locals.clear(trackHistory);
+		clearPopped();
 	}
 
 	public void initLocals() {
@@ -89,23 +175,23 @@ public class Simulator {
 				switch (s) {
 
 					case DOUBLE:
-						locals.set(offset, new EntryValue(EntryType.DOUBLE, -1), 0);
+						locals.set(offset, value(EntryType.DOUBLE, -1), 0);
 						offset += 2;
 						break;
 					case FLOAT:
-						locals.set(offset, new EntryValue(EntryType.FLOAT, -1), 0);
+						locals.set(offset, value(EntryType.FLOAT, -1), 0);
 						offset++;
 						break;
 					case INT:
-						locals.set(offset, new EntryValue(EntryType.INT, -1), 0);
+						locals.set(offset, value(EntryType.INT, -1), 0);
 						offset++;
 						break;
 					case LONG:
-						locals.set(offset, new EntryValue(EntryType.LONG, -1), 0);
+						locals.set(offset, value(EntryType.LONG, -1), 0);
 						offset += 2;
 						break;
 					case REFERENCE:
-						locals.set(offset, new EntryValue(EntryType.REFERENCE, -1), 0);
+						locals.set(offset, value(EntryType.REFERENCE, -1), 0);
 						offset++;
 						break;
 					case JUMP:
@@ -118,20 +204,92 @@ public class Simulator {
 					case RETURN_ADDRESS:
 					case THROW:
 					default:
-						throw new UnsupportedOperationException("Unknown Stack op " + s);
+						throw new SimulationException(Code.UNSUPPORTED, "Unknown Stack op " + s);
 
 				}
 			}
 			state = State.POP;
 		} catch (Exception e) {
-			e.printStackTrace();
-			state = State.ERRORED;
-			errorMessage = e.getMessage();
+			fail(e);
+		} finally {
+			record();
 		}
 	}
 
 	List<EntryValue> popped = new ArrayList<>();
 	List<EntryValue[]> popped2 = new ArrayList<>();
+	// The numbers of popped values that are EntryValue.number, by index in popped, and two per pair in popped2.
+	private long[] poppedNumbers = new long[4];
+	private long[] popped2Numbers = new long[4];
+	// Reused for the pairs in popped2, replaced along with the lists when they are shared.
+	private EntryValue[][] popped2Buffers = new EntryValue[2][2];
+	// Set while the popped lists may be shared with a copy, they are copied before the next write.
+	boolean poppedShared;
+
+	private void ownPopped() {
+		if (poppedShared) {
+			popped = new ArrayList<>(popped);
+			popped2 = new ArrayList<>(popped2);
+			poppedNumbers = poppedNumbers.clone();
+			popped2Numbers = popped2Numbers.clone();
+			popped2Buffers = new EntryValue[2][2];
+			poppedShared = false;
+		}
+	}
+
+	// Empties the popped lists for the next instruction. Shared ones are replaced rather than copied, nothing in them is kept.
+	private void clearPopped() {
+		if (poppedShared) {
+			popped = new ArrayList<>();
+			popped2 = new ArrayList<>();
+			poppedNumbers = new long[Math.max(4, poppedNumbers.length)];
+			popped2Numbers = new long[4];
+			popped2Buffers = new EntryValue[2][2];
+			poppedShared = false;
+		} else {
+			popped.clear();
+			popped2.clear();
+		}
+	}
+
+	private void addPopped(EntryValue value) {
+		int index = popped.size();
+		if (index == poppedNumbers.length) {
+			poppedNumbers = Arrays.copyOf(poppedNumbers, index * 2);
+		}
+		poppedNumbers[index] = stack.numberAt(stack.getSize());
+		popped.add(value);
+	}
+
+	private void addPopped2() {
+		int index = popped2.size();
+		if (2 * index + 2 > popped2Numbers.length) {
+			popped2Numbers = Arrays.copyOf(popped2Numbers, 4 * index);
+		}
+		popped2.add(stack.popAny2Slots(index < popped2Buffers.length ? popped2Buffers[index] : new EntryValue[2]));
+		popped2Numbers[2 * index] = stack.numberAt(stack.getSize());
+		popped2Numbers[2 * index + 1] = stack.numberAt(stack.getSize() + 1);
+	}
+
+	/**
+	 * A value popped by the current instruction.
+	 */
+	EntryValue getPopped(int index) {
+		EntryValue value = popped.get(index);
+		return value.isNumber() ? EntryValue.ofNumber(value.getType(), poppedNumbers[index]) : value;
+	}
+
+	private EntryValue value(EntryType type, int source) {
+		return trackHistory ? new EntryValue(type, source) : EntryValue.untracked(type);
+	}
+
+	private void push(EntryType type) {
+		if (trackHistory || type == EntryType.RETURN_ADDRESS) {
+			stack.push(type, instruction, getAllPopped());
+		} else {
+			stack.push(EntryValue.untracked(type));
+		}
+	}
 
 	private List<EntryValue> getAllPopped() {
 		if (popped2.isEmpty()) {
@@ -149,61 +307,77 @@ public class Simulator {
 	public void performPops() {
 		try {
 			ensureState(State.POP);
-			popped.clear();
-			popped2.clear();
-			for (StackOp op : insts.alters.get(instruction).remove) {
-				switch (op) {
+			clearPopped();
+			for (byte op : insts.alters.get(instruction).remove) {
+				switch (StackAlter.OPS[op]) {
 					case ANY_1:
-						popped.add(stack.popAny1());
+						addPopped(stack.popAny1Slot());
 						break;
 					case ANY_2:
-						popped2.add(stack.popAny2());
+						addPopped2();
 						break;
 					case CLEAR:
-						stack.entries.clear();
+						stack.clear();
 						break;
 					case DOUBLE:
-						popped.add(stack.pop(EntryType.DOUBLE));
+						addPopped(stack.popSlot(EntryType.DOUBLE));
 						break;
 					case FLOAT:
-						popped.add(stack.pop(EntryType.FLOAT));
+						addPopped(stack.popSlot(EntryType.FLOAT));
 						break;
 					case FRAME:
-						throw new UnsupportedOperationException("Frame is add only.");
+						throw new SimulationException(Code.UNSUPPORTED, "Frame is add only.");
 					case INT:
-						popped.add(stack.pop(EntryType.INT));
+						addPopped(stack.popSlot(EntryType.INT));
 						break;
 					case JUMP:
-						throw new UnsupportedOperationException("Jump is add only.");
+						throw new SimulationException(Code.UNSUPPORTED, "Jump is add only.");
 					case LONG:
-						popped.add(stack.pop(EntryType.LONG));
+						addPopped(stack.popSlot(EntryType.LONG));
 						break;
 					case REFERENCE:
-						popped.add(stack.pop(EntryType.REFERENCE));
+						addPopped(stack.popSlot(EntryType.REFERENCE));
 						break;
 					case REFERENCE_OR_RETURN_ADDRESS:
-						popped.add(stack.popRefOrRet());
+						addPopped(stack.popRefOrRet());
 						break;
 					case RET:
-						throw new UnsupportedOperationException("Ret is add only.");
+						throw new SimulationException(Code.UNSUPPORTED, "Ret is add only.");
 					case RETURN_ADDRESS:
-						popped.add(stack.pop(EntryType.RETURN_ADDRESS));
+						addPopped(stack.popSlot(EntryType.RETURN_ADDRESS));
 						break;
 					case THROW:
-						throw new UnsupportedOperationException("Throw is add only.");
+						throw new SimulationException(Code.UNSUPPORTED, "Throw is add only.");
 				}
 			}
 			state = State.PUSH;
 		} catch (Exception e) {
-			e.printStackTrace();
-			state = State.ERRORED;
-			errorMessage = e.getMessage();
+			fail(e);
+		} finally {
+			record();
 		}
 	}
 
+	private void record() {
+		if (recorder != null) {
+			recorder.record(this);
+		}
+	}
+
+	private void fail(Exception e) {
+		state = State.ERRORED;
+		errorMessage = e.getMessage();
+		if (e instanceof SimulationException s) {
+			error = new SimulationError(s.code, instruction, errorMessage, null);
+		} else {
+			error = new SimulationError(Code.INTERNAL, instruction, errorMessage, e);
+		}
+		errorSink.report(this, error);
+	}
+
 	public void ensureState(State s) {
 		if (state != s) {
-			throw new IllegalStateException("States performed out of order. Expected " + s + " found " + state);
+			throw new SimulationException(Code.STATE_ORDER, "States performed out of order. Expected " + s + " found " + state);
 		}
 	}
 
@@ -217,90 +391,91 @@ public class Simulator {
 			switch (node.getOpcode()) {
 				case DUP -> {
 					EntryValue value = popped.get(0);
-					stack.push(value);
-					stack.push(value.move(instruction));
+					stack.push(value, poppedNumbers[0]);
+					stack.push(value.move(instruction), poppedNumbers[0]);
 					return;
 				}
 				case DUP_X1 -> {
 					EntryValue value = popped.get(0);
 					EntryValue value2 = popped.get(1);
-					stack.push(value.move(instruction));
-					stack.push(value2);
-					stack.push(value);
+					stack.push(value.move(instruction), poppedNumbers[0]);
+					stack.push(value2, poppedNumbers[1]);
+					stack.push(value, poppedNumbers[0]);
 					return;
 				}
 				case DUP_X2 -> {
-					stack.push(popped.get(0).move(instruction));
-					stack.push(popped.get(2));
-					stack.push(popped.get(1));
-					stack.push(popped.get(0));
+					stack.push(popped.get(0).move(instruction), poppedNumbers[0]);
+					stack.push(popped.get(2), poppedNumbers[2]);
+					stack.push(popped.get(1), poppedNumbers[1]);
+					stack.push(popped.get(0), poppedNumbers[0]);
 					return;
 				}
 				case DUP2 -> {
 					EntryValue[] value = popped2.get(0);
-					stack.push2(value);
-					stack.push2(new EntryValue[] { value[0].move(instruction), value[1].move(instruction) });
+					pushPopped2(0, value[0], value[1]);
+					pushPopped2(0, value[0].move(instruction), value[1].move(instruction));
 					return;
 				}
 				case DUP2_X1 -> {
 					EntryValue[] value = popped2.get(0);
-					stack.push2(new EntryValue[] { value[0].move(instruction), value[1].move(instruction) });
-					stack.push(popped.get(0));
-					stack.push2(value);
+					pushPopped2(0, value[0].move(instruction), value[1].move(instruction));
+					stack.push(popped.get(0), poppedNumbers[0]);
+					pushPopped2(0, value[0], value[1]);
 					return;
 				}
 				case DUP2_X2 -> {
 					EntryValue[] value = popped2.get(0);
-					stack.push2(new EntryValue[] { value[0].move(instruction), value[1].move(instruction) });
-					stack.push2(popped2.get(1));
-					stack.push2(value);
+					pushPopped2(0, value[0].move(instruction), value[1].move(instruction));
+					pushPopped2(1, popped2.get(1)[0], popped2.get(1)[1]);
+					pushPopped2(0, value[0], value[1]);
 					return;
 				}
 				case SWAP -> {
 					EntryValue value = popped.get(0);
 					EntryValue value2 = popped.get(1);
-					stack.push(value.move(instruction));
-					stack.push(value2.move(instruction));
+					stack.push(value.move(instruction), poppedNumbers[0]);
+					stack.push(value2.move(instruction), poppedNumbers[1]);
 					return;
 				}
 			}
-			for (StackOp op : alter.add) {
-				switch (op) {
+			for (byte op : alter.add) {
+				switch (StackAlter.OPS[op]) {
 					case ANY_1:
-						throw new UnsupportedOperationException("ANY_1 should be handled by special case " + insts.toString(insts.alters.get(instruction).node));
+						throw new SimulationException(Code.UNSUPPORTED, "ANY_1 should be handled by special case " + insts.toString(instruction));
 					case ANY_2:
-						throw new UnsupportedOperationException("ANY_2 should be handled by special case " + insts.toString(insts.alters.get(instruction).node));
+						throw new SimulationException(Code.UNSUPPORTED, "ANY_2 should be handled by special case " + insts.toString(instruction));
 					case CLEAR:
-						stack.entries.clear();
+						stack.clear();
 						break;
 					case DOUBLE:
-						stack.push(EntryType.DOUBLE, instruction, getAllPopped());
+						push(EntryType.DOUBLE);
 						break;
 					case FLOAT:
-						stack.push(EntryType.FLOAT, instruction, getAllPopped());
+						push(EntryType.FLOAT);
 						break;
 					case FRAME:
 						handleFrame(insts.alters.get(instruction));
 						break;
 					case INT:
-						stack.push(EntryType.INT, instruction, getAllPopped());
+						push(EntryType.INT);
 						break;
 					case JUMP:
 						// Performed in Jump step.
 						break;
 					case LONG:
-						stack.push(EntryType.LONG, instruction, getAllPopped());
+						push(EntryType.LONG);
 						break;
 					case REFERENCE:
-						stack.push(EntryType.REFERENCE, instruction, getAllPopped());
+						push(EntryType.REFERENCE);
 						break;
 					case REFERENCE_OR_RETURN_ADDRESS:
+						ownPopped();
 						stack.push(popped.remove(popped.size() - 1));
 						break;
 					case RET:
-						throw new UnsupportedOperationException("Ret is add only.");
+						throw new SimulationException(Code.UNSUPPORTED, "Ret is add only.");
 					case RETURN_ADDRESS:
-						stack.push(EntryType.RETURN_ADDRESS, instruction, getAllPopped());
+						push(EntryType.RETURN_ADDRESS);
 						break;
 					case THROW:
 						break;
@@ -311,669 +486,441 @@ public class Simulator {
 			handleLoad(alter);
 			handleReturn(alter);
 		} catch (Exception e) {
-			e.printStackTrace();
-			state = State.ERRORED;
-			errorMessage = e.getMessage();
+			fail(e);
+		} finally {
+			record();
 		}
 	}
 
+	// Pushes a pair from popped2, or values moved from it, with the numbers of the pair.
+	private void pushPopped2(int pair, EntryValue first, EntryValue second) {
+		stack.push2(first, popped2Numbers[2 * pair], second, popped2Numbers[2 * pair + 1]);
+	}
+
 	public void jumpToCatch(String type) {
 		try {
-			List<TryCatchBlockNode> tryCatches = new ArrayList<>(getActiveCatches());
-			Collections.reverse(tryCatches);
-			for (var tryCatch : tryCatches) {
+			List<TryCatchBlockNode> tryCatches = getActiveCatches();
+			for (var tryCatch : tryCatches.reversed()) {
 				if ((tryCatch.type == null && type == null) || tryCatch.type.equals(type)) {
 					performJump(tryCatch.handler.getLabel());
 					return;
 				}
 			}
 			state = State.FINISHED;
+			record();
 		} catch (Exception e) {
-			e.printStackTrace();
-			state = State.ERRORED;
-			errorMessage = e.getMessage();
+			fail(e);
+			record();
 		}
 	}
 
 	public List<TryCatchBlockNode> getActiveCatches() {
-		List<TryCatchBlockNode> active = new ArrayList<>();
-		for (int i = 0; i < insts.alters.size(); i++) {
-			if (insts.alters.get(i).node instanceof LabelNode label) {
-				for (TryCatchBlockNode tryCatch : insts.tryCatchBlocks) {
-					if (tryCatch.start.getLabel() == label.getLabel()) {
-						active.add(tryCatch);
-					}
-					if (tryCatch.end.getLabel() == label.getLabel()) {
-						active.remove(tryCatch);
-					}
-				}
-			}
-			if (i == instruction) {
-				break;
-			}
-		}
-		return active;
+		return insts.getActiveCatches(instruction);
+	}
+
+	public List<TryCatchBlockNode> getHandlers() {
+		return insts.getHandlers(instruction);
+	}
+
+	/**
+	 * Whether a handler is known to catch an exception of the thrown type. Without the class hierarchy only one for any exception or for exactly
+	 * the thrown class is, any other might or might not.
+	 */
+	public static boolean catches(TryCatchBlockNode tryCatch, String thrown) {
+		return tryCatch.type == null || tryCatch.type.equals("java/lang/Throwable") || tryCatch.type.equals(thrown);
 	}
 
 	public String getLocalName(int local) {
-		String name = null;
-		LocalVariableNode setter = null;
-		for (int i = 0; i < insts.alters.size(); i++) {
-			if (insts.alters.get(i).node instanceof LabelNode label) {
-				for (LocalVariableNode varName : insts.localsDebug) {
-					if (varName.index == local) {
-						if (varName.start.getLabel() == label.getLabel()) {
-							name = varName.name;
-							setter = varName;
-						}
-						if (setter == varName && varName.end.getLabel() == label.getLabel()) {
-							name = null;
-						}
-					}
-				}
-			}
-			if (i == instruction) {
-				break;
-			}
-		}
-		return name;
+		return insts.getLocalName(instruction, local);
 	}
 
 	private void handleKnownValues(StackAlter sa) {
 		AbstractInsnNode node = sa.node;
 
-		switch (node.getOpcode()) {
+		int opcode = node.getOpcode();
+		switch (opcode) {
 			case NEW -> {
-				stack.setTopKnown(0, "Type: " + ((TypeInsnNode) node).desc);
+				if (sa.known == null) {
+					sa.known = KnownValue.reference(((TypeInsnNode) node).desc, true);
+				}
+				stack.setTopKnown(0, sa.known);
 			}
 
 			// Dynamic constants.
 			case LDC -> {
-				stack.setTopKnown(0, "" + ((LdcInsnNode) node).cst);
+				if (sa.known == null) {
+					sa.known = KnownValue.constant(((LdcInsnNode) node).cst);
+				}
+				stack.setTopKnown(0, sa.known);
 			}
 			case BIPUSH, SIPUSH -> {
-				stack.setTopKnown(0, "" + ((IntInsnNode) node).operand);
+				setTopInt(((IntInsnNode) node).operand);
 			}
 
-			// Methods
-			case INVOKEVIRTUAL, INVOKESPECIAL, INVOKESTATIC, INVOKEINTERFACE -> {
-				MethodInsnNode method = (MethodInsnNode) node;
-				Type returnType = Type.getReturnType(method.desc);
-				if (returnType.getSort() == Type.OBJECT) {
-					stack.setTopKnown(0, "Type: " + returnType.getDescriptor());
+			// Methods, the known return type is worked out once per instruction and UNKNOWN if it is not an object.
+			case INVOKEVIRTUAL, INVOKESPECIAL, INVOKESTATIC, INVOKEINTERFACE, INVOKEDYNAMIC -> {
+				if (sa.known == null) {
+					Type returnType = Type.getReturnType(node instanceof MethodInsnNode method ? method.desc : ((InvokeDynamicInsnNode) node).desc);
+					sa.known = returnType.getSort() == Type.OBJECT ? KnownValue.reference(returnType.getDescriptor(), false) : KnownValue.UNKNOWN;
 				}
-			}
-			case INVOKEDYNAMIC -> {
-				InvokeDynamicInsnNode method = (InvokeDynamicInsnNode) node;
-				Type returnType = Type.getReturnType(method.desc);
-				if (returnType.getSort() == Type.OBJECT) {
-					stack.setTopKnown(0, "Type: " + returnType.getDescriptor());
+				if (sa.known.isKnown()) {
+					stack.setTopKnown(0, sa.known);
 				}
 			}
 
 			// Arrays
-			case NEWARRAY -> {
-				String extra = "";
-				if (isInt(popped.get(0).getKnownValue())) {
-					extra += " Length: " + popped.get(0).getKnownValue();
-				}
-				String type = "";
-				switch (((IntInsnNode) node).operand) {
-					case T_BOOLEAN:
-						type = "[Z";
-						break;
-					case T_BYTE:
-						type = "[B";
-						break;
-					case T_CHAR:
-						type = "[C";
-						break;
-					case T_DOUBLE:
-						type = "[D";
-						break;
-					case T_FLOAT:
-						type = "[F";
-						break;
-					case T_INT:
-						type = "[I";
-						break;
-					case T_LONG:
-						type = "[J";
-						break;
-					case T_SHORT:
-						type = "[S";
-						break;
-				}
-				stack.setTopKnown(0, "Type: " + type + extra);
-			}
-			case ANEWARRAY -> {
-				String extra = "";
-				if (isInt(popped.get(0).getKnownValue())) {
-					extra += " Length: " + popped.get(0).getKnownValue();
-				}
-				stack.setTopKnown(0, "Type: [L" + ((TypeInsnNode) node).desc + ";" + extra);
+			case NEWARRAY, ANEWARRAY -> {
+				stack.setTopKnown(0, newArray(sa));
 			}
 			case ARRAYLENGTH -> {
-				String old = popped.get(0).getKnownValue();
-				if (old.contains(" Length: ")) {
-					stack.setTopKnown(0, old.substring(old.lastIndexOf(" Length: ") + 9).split(",")[0]);
+				KnownValue old = popped.get(0).getKnown();
+				if (old.getLengths() != null) {
+					stack.setTopKnown(0, old.getLengths()[0]);
 				}
 			}
 
 			case AALOAD -> {
-				String old = popped.get(1).getKnownValue();
-				if (old.startsWith("Type: [")) {
-					if (old.contains(" Length: ")) {
-						String lengths = old.substring(old.lastIndexOf(" Length: ") + 9);
-						if (lengths.contains(",")) {
-							stack.setTopKnown(0, "Type: " + old.substring(7, old.lastIndexOf(" Length: ")) + " Length: " + lengths.substring(lengths.indexOf(",") + 1));
-						} else {
-							stack.setTopKnown(0, "Type: " + old.substring(7, old.lastIndexOf(" Length: ")));
-						}
+				KnownValue old = popped.get(1).getKnown();
+				if (old.isArray()) {
+					String element = old.getType().substring(1);
+					KnownValue[] lengths = old.getLengths();
+					if (lengths != null && lengths.length > 1) {
+						stack.setTopKnown(0, KnownValue.array(element, Arrays.copyOfRange(lengths, 1, lengths.length)));
 					} else {
-						stack.setTopKnown(0, "Type: " + old.substring(7));
+						stack.setTopKnown(0, KnownValue.reference(element, false));
 					}
 				}
 			}
 
+			// The handler receives the exception that was thrown, a thrown null becomes an unknown NullPointerException.
+			case ATHROW -> {
+				KnownValue thrown = popped.get(0).getKnown();
+				if (thrown.getType() != null) {
+					stack.setTopKnown(0, thrown);
+				}
+			}
+
 			case MULTIANEWARRAY -> {
 				MultiANewArrayInsnNode n = (MultiANewArrayInsnNode) node;
-				String dims = "";
+				KnownValue[] dims = new KnownValue[n.dims];
 				for (int i = 0; i < n.dims; i++) {
-					String v = popped.get(n.dims - 1 - i).getKnownValue();
-					if (isInt(v)) dims += v;
-					if (i + 1 < n.dims) {
-						dims += ",";
-					}
+					int p = n.dims - 1 - i;
+					dims[i] = isInt(p) ? KnownValue.ofInt(intAt(p)) : KnownValue.UNKNOWN;
 				}
-				stack.setTopKnown(0, "Type: " + n.desc + " Length: " + dims);
+				stack.setTopKnown(0, KnownValue.array(n.desc, dims));
 
 			}
 
 			// Constants
 			case ACONST_NULL -> {
-				stack.setTopKnown(0, "Type: null");
-			}
-			case ICONST_M1 -> {
-				stack.setTopKnown(0, "-1");
-			}
-			case ICONST_0 -> {
-				stack.setTopKnown(0, "0");
-			}
-			case ICONST_1 -> {
-				stack.setTopKnown(0, "1");
-			}
-			case ICONST_2 -> {
-				stack.setTopKnown(0, "2");
-			}
-			case ICONST_3 -> {
-				stack.setTopKnown(0, "3");
+				stack.setTopKnown(0, KnownValue.NULL);
 			}
-			case ICONST_4 -> {
-				stack.setTopKnown(0, "4");
+			case ICONST_M1, ICONST_0, ICONST_1, ICONST_2, ICONST_3, ICONST_4, ICONST_5 -> {
+				setTopInt(opcode - ICONST_0);
 			}
-			case ICONST_5 -> {
-				stack.setTopKnown(0, "5");
+			case LCONST_0, LCONST_1 -> {
+				setTopLong(opcode - LCONST_0);
 			}
-			case LCONST_0 -> {
-				stack.setTopKnown(0, "0");
+			case FCONST_0, FCONST_1, FCONST_2 -> {
+				setTopFloat(opcode - FCONST_0);
 			}
-			case LCONST_1 -> {
-				stack.setTopKnown(0, "1");
-			}
-			case FCONST_0 -> {
-				stack.setTopKnown(0, "0.0");
-			}
-			case FCONST_1 -> {
-				stack.setTopKnown(0, "1.0");
-			}
-			case FCONST_2 -> {
-				stack.setTopKnown(0, "2.0");
-			}
-			case DCONST_0 -> {
-				stack.setTopKnown(0, "0.0");
-			}
-			case DCONST_1 -> {
-				stack.setTopKnown(0, "1.0");
-			}
-			// Operators
-			case IADD -> {
-				var a = popped.get(0).getKnownValue();
-				var b = popped.get(1).getKnownValue();
-				stack.setTopKnown(0, parseIntOrUnknown(parseInt(a) + parseInt(b), a, b, "+"));
-			}
-			case LADD -> {
-				var a = popped.get(0).getKnownValue();
-				var b = popped.get(1).getKnownValue();
-				stack.setTopKnown(0, parseLongOrUnknown(parseLong(a) + parseLong(b), a, b, "+"));
-			}
-			case FADD -> {
-				var a = popped.get(0).getKnownValue();
-				var b = popped.get(1).getKnownValue();
-				stack.setTopKnown(0, parseFloatOrUnknown(parseFloat(a) + parseFloat(b), a, b, "+"));
-			}
-			case DADD -> {
-				var a = popped.get(0).getKnownValue();
-				var b = popped.get(1).getKnownValue();
-				stack.setTopKnown(0, parseDoubleOrUnknown(parseDouble(a) + parseDouble(b), a, b, "+"));
-			}
-			case ISUB -> {
-				var b = popped.get(0).getKnownValue();
-				var a = popped.get(1).getKnownValue();
-				stack.setTopKnown(0, parseIntOrUnknown(parseInt(a) - parseInt(b), a, b, "-"));
-			}
-			case LSUB -> {
-				var b = popped.get(0).getKnownValue();
-				var a = popped.get(1).getKnownValue();
-				stack.setTopKnown(0, parseLongOrUnknown(parseLong(a) - parseLong(b), a, b, "-"));
-			}
-			case FSUB -> {
-				var b = popped.get(0).getKnownValue();
-				var a = popped.get(1).getKnownValue();
-				stack.setTopKnown(0, parseFloatOrUnknown(parseFloat(a) - parseFloat(b), a, b, "-"));
-			}
-			case DSUB -> {
-				var b = popped.get(0).getKnownValue();
-				var a = popped.get(1).getKnownValue();
-				stack.setTopKnown(0, parseDoubleOrUnknown(parseDouble(a) - parseDouble(b), a, b, "-"));
-			}
-			case IMUL -> {
-				var a = popped.get(0).getKnownValue();
-				var b = popped.get(1).getKnownValue();
-				stack.setTopKnown(0, parseIntOrUnknown(parseInt(a) * parseInt(b), a, b, "*"));
-			}
-			case LMUL -> {
-				var a = popped.get(0).getKnownValue();
-				var b = popped.get(1).getKnownValue();
-				stack.setTopKnown(0, parseLongOrUnknown(parseLong(a) * parseLong(b), a, b, "*"));
-			}
-			case FMUL -> {
-				var a = popped.get(0).getKnownValue();
-				var b = popped.get(1).getKnownValue();
-				stack.setTopKnown(0, parseFloatOrUnknown(parseFloat(a) * parseFloat(b), a, b, "*"));
-			}
-			case DMUL -> {
-				var a = popped.get(0).getKnownValue();
-				var b = popped.get(1).getKnownValue();
-				stack.setTopKnown(0, parseDoubleOrUnknown(parseDouble(a) * parseDouble(b), a, b, "*"));
-			}
-			case IDIV -> {
-				var b = popped.get(0).getKnownValue();
-				var a = popped.get(1).getKnownValue();
-				stack.setTopKnown(0, parseIntOrUnknown(parseInt(a) / parseInt(b), a, b, "/"));
-			}
-			case LDIV -> {
-				var b = popped.get(0).getKnownValue();
-				var a = popped.get(1).getKnownValue();
-				stack.setTopKnown(0, parseLongOrUnknown(parseLong(a) / parseLong(b), a, b, "/"));
-			}
-			case FDIV -> {
-				var b = popped.get(0).getKnownValue();
-				var a = popped.get(1).getKnownValue();
-				stack.setTopKnown(0, parseFloatOrUnknown(parseFloat(a) / parseFloat(b), a, b, "/"));
-			}
-			case DDIV -> {
-				var b = popped.get(0).getKnownValue();
-				var a = popped.get(1).getKnownValue();
-				stack.setTopKnown(0, parseDoubleOrUnknown(parseDouble(a) / parseDouble(b), a, b, "/"));
-			}
-			case IREM -> {
-				var b = popped.get(0).getKnownValue();
-				var a = popped.get(1).getKnownValue();
-				stack.setTopKnown(0, parseIntOrUnknown(parseInt(a) % parseInt(b), a, b, "%"));
-			}
-			case LREM -> {
-				var b = popped.get(0).getKnownValue();
-				var a = popped.get(1).getKnownValue();
-				stack.setTopKnown(0, parseLongOrUnknown(parseLong(a) % parseLong(b), a, b, "%"));
-			}
-			case FREM -> {
-				var b = popped.get(0).getKnownValue();
-				var a = popped.get(1).getKnownValue();
-				stack.setTopKnown(0, parseFloatOrUnknown(parseFloat(a) % parseFloat(b), a, b, "%"));
-			}
-			case DREM -> {
-				var b = popped.get(0).getKnownValue();
-				var a = popped.get(1).getKnownValue();
-				stack.setTopKnown(0, parseDoubleOrUnknown(parseDouble(a) % parseDouble(b), a, b, "%"));
+			case DCONST_0, DCONST_1 -> {
+				setTopDouble(opcode - DCONST_0);
 			}
+			// Operators, folded as value1 op value2 in JVM operand order. value2 was on top, so it is popped index 0 and value1 index 1.
+			case IADD, ISUB, IMUL, IDIV, IREM, ISHL, ISHR, IUSHR, IAND, IOR, IXOR -> foldInt(opcode, 1, 0);
+			case LADD, LSUB, LMUL, LDIV, LREM, LSHL, LSHR, LUSHR, LAND, LOR, LXOR -> foldLong(opcode, 1, 0);
+			case FADD, FSUB, FMUL, FDIV, FREM -> foldFloat(opcode, 1, 0);
+			case DADD, DSUB, DMUL, DDIV, DREM -> foldDouble(opcode, 1, 0);
 			case INEG -> {
-				var a = popped.get(0).getKnownValue();
-				if (isInt(a)) stack.setTopKnown(0, "" + -parseInt(a));
+				if (isInt(0)) setTopInt(-intAt(0));
 			}
 			case LNEG -> {
-				var a = popped.get(0).getKnownValue();
-				if (isLong(a)) stack.setTopKnown(0, "" + -parseLong(a));
+				if (isIntegral(0)) setTopLong(-longAt(0));
 			}
 			case FNEG -> {
-				var a = popped.get(0).getKnownValue();
-				if (isFloat(a)) stack.setTopKnown(0, "" + -parseFloat(a));
+				if (isFloat(0)) setTopFloat(-floatAt(0));
 			}
 			case DNEG -> {
-				var a = popped.get(0).getKnownValue();
-				if (isDouble(a)) stack.setTopKnown(0, "" + -parseDouble(a));
-			}
-			case ISHL -> {
-				var a = popped.get(0).getKnownValue();
-				var b = popped.get(1).getKnownValue();
-				stack.setTopKnown(0, parseIntOrUnknown(parseInt(a) << parseInt(b), a, b, "<<"));
-			}
-			case LSHL -> {
-				var a = popped.get(0).getKnownValue();
-				var b = popped.get(1).getKnownValue();
-				stack.setTopKnown(0, parseLongOrUnknown(parseLong(a) << parseLong(b), a, b, "<<"));
-			}
-			case ISHR -> {
-				var b = popped.get(0).getKnownValue();
-				var a = popped.get(1).getKnownValue();
-				stack.setTopKnown(0, parseIntOrUnknown(parseInt(a) >> parseInt(b), a, b, ">>"));
-			}
-			case LSHR -> {
-				var b = popped.get(0).getKnownValue();
-				var a = popped.get(1).getKnownValue();
-				stack.setTopKnown(0, parseLongOrUnknown(parseLong(a) >> parseLong(b), a, b, ">>"));
-			}
-			case IUSHR -> {
-				var b = popped.get(0).getKnownValue();
-				var a = popped.get(1).getKnownValue();
-				stack.setTopKnown(0, parseIntOrUnknown(parseInt(a) >>> parseInt(b), a, b, ">>>"));
-			}
-			case LUSHR -> {
-				var b = popped.get(0).getKnownValue();
-				var a = popped.get(1).getKnownValue();
-				stack.setTopKnown(0, parseLongOrUnknown(parseLong(a) >>> parseLong(b), a, b, ">>>"));
-			}
-			case IAND -> {
-				var a = popped.get(0).getKnownValue();
-				var b = popped.get(1).getKnownValue();
-				stack.setTopKnown(0, parseIntOrUnknown(parseInt(a) & parseInt(b), a, b, "&"));
-			}
-			case LAND -> {
-				var a = popped.get(0).getKnownValue();
-				var b = popped.get(1).getKnownValue();
-				stack.setTopKnown(0, parseLongOrUnknown(parseLong(a) & parseLong(b), a, b, "&"));
-			}
-			case IOR -> {
-				var a = popped.get(0).getKnownValue();
-				var b = popped.get(1).getKnownValue();
-				stack.setTopKnown(0, parseIntOrUnknown(parseInt(a) | parseInt(b), a, b, "|"));
-			}
-			case LOR -> {
-				var a = popped.get(0).getKnownValue();
-				var b = popped.get(1).getKnownValue();
-				stack.setTopKnown(0, parseLongOrUnknown(parseLong(a) | parseLong(b), a, b, "|"));
-			}
-			case IXOR -> {
-				var a = popped.get(0).getKnownValue();
-				var b = popped.get(1).getKnownValue();
-				stack.setTopKnown(0, parseIntOrUnknown(parseInt(a) ^ parseInt(b), a, b, "^"));
-			}
-			case LXOR -> {
-				var a = popped.get(0).getKnownValue();
-				var b = popped.get(1).getKnownValue();
-				stack.setTopKnown(0, parseLongOrUnknown(parseLong(a) ^ parseLong(b), a, b, "^"));
-			}
-			// Casts			
+				if (isDouble(0)) setTopDouble(-doubleAt(0));
+			}
+			// Casts
 			case I2L -> {
-				var a = popped.get(0).getKnownValue();
-				if (isInt(a)) stack.setTopKnown(0, "" + (long) parseInt(a));
+				if (isInt(0)) setTopLong((long) intAt(0));
 			}
 			case I2F -> {
-				var a = popped.get(0).getKnownValue();
-				if (isInt(a)) stack.setTopKnown(0, "" + (float) parseInt(a));
+				if (isInt(0)) setTopFloat((float) intAt(0));
 			}
 			case I2D -> {
-				var a = popped.get(0).getKnownValue();
-				if (isInt(a)) stack.setTopKnown(0, "" + (double) parseInt(a));
+				if (isInt(0)) setTopDouble((double) intAt(0));
 			}
 			case L2I -> {
-				var a = popped.get(0).getKnownValue();
-				if (isLong(a)) stack.setTopKnown(0, "" + (int) parseLong(a));
+				if (isIntegral(0)) setTopInt((int) longAt(0));
 			}
 			case L2F -> {
-				var a = popped.get(0).getKnownValue();
-				if (isLong(a)) stack.setTopKnown(0, "" + (float) parseLong(a));
+				if (isIntegral(0)) setTopFloat((float) longAt(0));
 			}
 			case L2D -> {
-				var a = popped.get(0).getKnownValue();
-				if (isLong(a)) stack.setTopKnown(0, "" + (double) parseLong(a));
+				if (isIntegral(0)) setTopDouble((double) longAt(0));
 			}
 			case F2I -> {
-				var a = popped.get(0).getKnownValue();
-				if (isFloat(a)) stack.setTopKnown(0, "" + (int) parseFloat(a));
+				if (isFloat(0)) setTopInt((int) floatAt(0));
 			}
 			case F2L -> {
-				var a = popped.get(0).getKnownValue();
-				if (isFloat(a)) stack.setTopKnown(0, "" + (long) parseFloat(a));
+				if (isFloat(0)) setTopLong((long) floatAt(0));
 			}
 			case F2D -> {
-				var a = popped.get(0).getKnownValue();
-				if (isFloat(a)) stack.setTopKnown(0, "" + (double) parseFloat(a));
+				if (isFloat(0)) setTopDouble((double) floatAt(0));
 			}
 			case D2I -> {
-				var a = popped.get(0).getKnownValue();
-				if (isDouble(a)) stack.setTopKnown(0, "" + (int) parseDouble(a));
+				if (isDouble(0)) setTopInt((int) doubleAt(0));
 			}
 			case D2L -> {
-				var a = popped.get(0).getKnownValue();
-				if (isDouble(a)) stack.setTopKnown(0, "" + (long) parseDouble(a));
+				if (isDouble(0)) setTopLong((long) doubleAt(0));
 			}
 			case D2F -> {
-				var a = popped.get(0).getKnownValue();
-				if (isDouble(a)) stack.setTopKnown(0, "" + (float) parseDouble(a));
+				if (isDouble(0)) setTopFloat((float) doubleAt(0));
 			}
 			case I2B -> {
-				var a = popped.get(0).getKnownValue();
-				if (isInt(a)) stack.setTopKnown(0, "" + (byte) parseInt(a));
+				if (isInt(0)) setTopInt((byte) intAt(0));
 			}
 			case I2C -> {
-				var a = popped.get(0).getKnownValue();
-				if (isInt(a)) stack.setTopKnown(0, "" + (int) (char) parseInt(a));
+				if (isInt(0)) setTopInt((int) (char) intAt(0));
 			}
 			case I2S -> {
-				var a = popped.get(0).getKnownValue();
-				if (isInt(a)) stack.setTopKnown(0, "" + (short) parseInt(a));
+				if (isInt(0)) setTopInt((short) intAt(0));
 			}
 
-			// Compares
+			// Compares, value1 against value2 as for the operators. A NaN gives -1 for the L forms and 1 for the G forms, and -0.0 equals 0.0.
 			case LCMP -> {
-				var a = popped.get(0).getKnownValue();
-				var b = popped.get(1).getKnownValue();
-				if (isLong(a) && isLong(b)) {
-					stack.setTopKnown(0, "" + Long.compare(parseLong(a), parseLong(b)));
+				if (isIntegral(1) && isIntegral(0)) {
+					setTopInt(Long.compare(longAt(1), longAt(0)));
 				}
 			}
 			case FCMPL, FCMPG -> {
-				var a = popped.get(0).getKnownValue();
-				var b = popped.get(1).getKnownValue();
-				if (isFloat(a) && isFloat(b)) {
-					stack.setTopKnown(0, "" + Float.compare(parseFloat(a), parseFloat(b)));
+				if (isFloat(1) && isFloat(0)) {
+					float x = floatAt(1);
+					float y = floatAt(0);
+					setTopInt(x > y ? 1 : x == y ? 0 : x < y ? -1 : opcode == FCMPG ? 1 : -1);
 				}
 			}
 			case DCMPL, DCMPG -> {
-				var a = popped.get(0).getKnownValue();
-				var b = popped.get(1).getKnownValue();
-				if (isDouble(a) && isDouble(b)) {
-					stack.setTopKnown(0, "" + Double.compare(parseDouble(a), parseDouble(b)));
+				if (isDouble(1) && isDouble(0)) {
+					double x = doubleAt(1);
+					double y = doubleAt(0);
+					setTopInt(x > y ? 1 : x == y ? 0 : x < y ? -1 : opcode == DCMPG ? 1 : -1);
 				}
 			}
 		}
 	}
 
-	private boolean isInt(String s) {
-		try {
-			Integer.parseInt(s);
-			return true;
-		} catch (Exception e) {
+	/**
+	 * The result of NEWARRAY or ANEWARRAY, kept on the instruction while the known length stays the same so a loop creating the same array
+	 * reuses it.
+	 */
+	private KnownValue newArray(StackAlter sa) {
+		boolean known = isInt(0);
+		KnownValue last = sa.known;
+		if (last != null && (known ? last.getLengths() != null && last.getLengths()[0].intValue() == intAt(0) : last.getLengths() == null)) {
+			return last;
 		}
-		return false;
+		String type;
+		if (sa.node instanceof TypeInsnNode anewarray) {
+			type = "[L" + anewarray.desc + ";";
+		} else {
+			type = switch (((IntInsnNode) sa.node).operand) {
+				case T_BOOLEAN -> "[Z";
+				case T_BYTE -> "[B";
+				case T_CHAR -> "[C";
+				case T_DOUBLE -> "[D";
+				case T_FLOAT -> "[F";
+				case T_INT -> "[I";
+				case T_LONG -> "[J";
+				case T_SHORT -> "[S";
+				default -> "";
+			};
+		}
+		KnownValue array = known ? KnownValue.array(type, KnownValue.ofInt(intAt(0))) : KnownValue.reference(type, true);
+		sa.known = array;
+		return array;
 	}
 
-	private boolean isLong(String s) {
-		try {
-			Long.parseLong(s);
-			return true;
-		} catch (Exception e) {
-		}
-		return false;
+	// The kind of a popped value, read from poppedNumbers for an EntryValue.number so nothing is created.
+	private KnownValue.Kind kindAt(int index) {
+		EntryValue value = popped.get(index);
+		return value.isNumber() ? EntryValue.numberKind(value.getType()) : value.getKnown().getKind();
 	}
 
-	private boolean isFloat(String s) {
-		try {
-			Float.parseFloat(s);
-			return true;
-		} catch (Exception e) {
-		}
-		return false;
+	private long bitsAt(int index) {
+		EntryValue value = popped.get(index);
+		return value.isNumber() ? poppedNumbers[index] : KnownValue.bits(value.getKnown());
 	}
 
-	private boolean isDouble(String s) {
-		try {
-			Double.parseDouble(s);
-			return true;
-		} catch (Exception e) {
-		}
-		return false;
+	private boolean isInt(int index) {
+		return kindAt(index) == KnownValue.Kind.INT;
 	}
 
-	private String parseIntOrUnknown(int v, String a, String b, String op) {
-		String value = v + "";
-		boolean aValid = false;
-		boolean bValid = false;
-		try {
-			Integer.parseInt(a);
-			aValid = true;
-		} catch (Exception e) {
-		}
-		try {
-			Integer.parseInt(b);
-			bValid = true;
-		} catch (Exception e) {
-		}
-		if (bValid && aValid) {
-			return value;
-		} else if (op == null) {
-			return null;
-		} else if (bValid) {
-			return "Unknown" + op + b;
-		} else if (aValid) {
-			return a + op + "Unknown";
-		} else {
-			return null;
-		}
+	private boolean isIntegral(int index) {
+		KnownValue.Kind kind = kindAt(index);
+		return kind == KnownValue.Kind.INT || kind == KnownValue.Kind.LONG;
 	}
 
-	private String parseLongOrUnknown(long v, String a, String b, String op) {
-		String value = v + "";
-		boolean aValid = false;
-		boolean bValid = false;
-		try {
-			Long.parseLong(a);
-			aValid = true;
-		} catch (Exception e) {
-		}
-		try {
-			Long.parseLong(b);
-			bValid = true;
-		} catch (Exception e) {
-		}
-		if (bValid && aValid) {
-			return value;
-		} else if (op == null) {
-			return "Unknown";
-		} else if (bValid) {
-			return "Unknown" + op + b;
-		} else if (aValid) {
-			return a + op + "Unknown";
-		} else {
-			return "Unknown";
-		}
+	private boolean isFloat(int index) {
+		return kindAt(index) == KnownValue.Kind.FLOAT;
 	}
 
-	private String parseFloatOrUnknown(float v, String a, String b, String op) {
-		String value = v + "";
-		boolean aValid = false;
-		boolean bValid = false;
-		try {
-			Float.parseFloat(a);
-			aValid = true;
-		} catch (Exception e) {
-		}
-		try {
-			Float.parseFloat(b);
-			bValid = true;
-		} catch (Exception e) {
-		}
-		if (bValid && aValid) {
-			return value;
-		} else if (op == null) {
-			return "Unknown";
-		} else if (bValid) {
-			return "Unknown" + op + b;
-		} else if (aValid) {
-			return a + op + "Unknown";
+	private boolean isDouble(int index) {
+		return kindAt(index) == KnownValue.Kind.DOUBLE;
+	}
+
+	private int intAt(int index) {
+		return (int) bitsAt(index);
+	}
+
+	private long longAt(int index) {
+		return bitsAt(index);
+	}
+
+	private float floatAt(int index) {
+		return (float) Double.longBitsToDouble(bitsAt(index));
+	}
+
+	private double doubleAt(int index) {
+		return Double.longBitsToDouble(bitsAt(index));
+	}
+
+	private void setTopInt(int value) {
+		stack.setTopNumber(value);
+	}
+
+	private void setTopLong(long value) {
+		stack.setTopNumber(value);
+	}
+
+	private void setTopFloat(float value) {
+		stack.setTopNumber(Double.doubleToLongBits(value));
+	}
+
+	private void setTopDouble(double value) {
+		stack.setTopNumber(Double.doubleToLongBits(value));
+	}
+
+	private static final KnownValue UNKNOWN_SYMBOL = KnownValue.symbolic("Unknown");
+
+	private void foldInt(int opcode, int a, int b) {
+		boolean aKnown = isInt(a);
+		boolean bKnown = isInt(b);
+		// Dividing by zero throws at run time, so there is nothing to fold and the result is left unknown.
+		if (bKnown && intAt(b) == 0 && (opcode == IDIV || opcode == IREM)) {
+			stack.setTopKnown(0, KnownValue.UNKNOWN);
+		} else if (aKnown && bKnown) {
+			int x = intAt(a);
+			int y = intAt(b);
+			setTopInt(switch (opcode) {
+				case IADD -> x + y;
+				case ISUB -> x - y;
+				case IMUL -> x * y;
+				case IDIV -> x / y;
+				case IREM -> x % y;
+				case ISHL -> x << y;
+				case ISHR -> x >> y;
+				case IUSHR -> x >>> y;
+				case IAND -> x & y;
+				case IOR -> x | y;
+				default -> x ^ y;
+			});
 		} else {
-			return "Unknown";
+			partial(opcode, a, aKnown, b, bKnown, KnownValue.UNKNOWN);
 		}
 	}
 
-	private String parseDoubleOrUnknown(double v, String a, String b, String op) {
-		String value = v + "";
-		boolean aValid = false;
-		boolean bValid = false;
-		try {
-			Double.parseDouble(a);
-			aValid = true;
-		} catch (Exception e) {
-		}
-		try {
-			Double.parseDouble(b);
-			bValid = true;
-		} catch (Exception e) {
-		}
-		if (bValid && aValid) {
-			return value;
-		} else if (op == null) {
-			return "Unknown";
-		} else if (bValid) {
-			return "Unknown" + op + b;
-		} else if (aValid) {
-			return a + op + "Unknown";
+	private void foldLong(int opcode, int a, int b) {
+		boolean aKnown = isIntegral(a);
+		boolean bKnown = isIntegral(b);
+		if (bKnown && longAt(b) == 0 && (opcode == LDIV || opcode == LREM)) {
+			stack.setTopKnown(0, KnownValue.UNKNOWN);
+		} else if (aKnown && bKnown) {
+			long x = longAt(a);
+			long y = longAt(b);
+			setTopLong(switch (opcode) {
+				case LADD -> x + y;
+				case LSUB -> x - y;
+				case LMUL -> x * y;
+				case LDIV -> x / y;
+				case LREM -> x % y;
+				case LSHL -> x << y;
+				case LSHR -> x >> y;
+				case LUSHR -> x >>> y;
+				case LAND -> x & y;
+				case LOR -> x | y;
+				default -> x ^ y;
+			});
 		} else {
-			return "Unknown";
+			partial(opcode, a, aKnown, b, bKnown, UNKNOWN_SYMBOL);
 		}
 	}
 
-	private int parseInt(String s) {
-		try {
-			return Integer.parseInt(s);
-		} catch (Exception e) {
-			return 1;
+	private void foldFloat(int opcode, int a, int b) {
+		boolean aKnown = isFloat(a);
+		boolean bKnown = isFloat(b);
+		if (aKnown && bKnown) {
+			float x = floatAt(a);
+			float y = floatAt(b);
+			setTopFloat(switch (opcode) {
+				case FADD -> x + y;
+				case FSUB -> x - y;
+				case FMUL -> x * y;
+				case FDIV -> x / y;
+				default -> x % y;
+			});
+		} else {
+			partial(opcode, a, aKnown, b, bKnown, UNKNOWN_SYMBOL);
 		}
 	}
 
-	private long parseLong(String s) {
-		try {
-			return Long.parseLong(s);
-		} catch (Exception e) {
-			return 1;
+	private void foldDouble(int opcode, int a, int b) {
+		boolean aKnown = isDouble(a);
+		boolean bKnown = isDouble(b);
+		if (aKnown && bKnown) {
+			double x = doubleAt(a);
+			double y = doubleAt(b);
+			setTopDouble(switch (opcode) {
+				case DADD -> x + y;
+				case DSUB -> x - y;
+				case DMUL -> x * y;
+				case DDIV -> x / y;
+				default -> x % y;
+			});
+		} else {
+			partial(opcode, a, aKnown, b, bKnown, UNKNOWN_SYMBOL);
 		}
 	}
 
-	private float parseFloat(String s) {
-		try {
-			return Float.parseFloat(s);
-		} catch (Exception e) {
-			return 1;
+	// Only one operand is known, the result is the operator applied to it and Unknown. Its text is built when it is shown.
+	private void partial(int opcode, int a, boolean aValid, int b, boolean bValid, KnownValue unknown) {
+		if (bValid) {
+			stack.setTopKnown(0, KnownValue.partial(operator(opcode), getPopped(b).getKnown(), false));
+		} else if (aValid) {
+			stack.setTopKnown(0, KnownValue.partial(operator(opcode), getPopped(a).getKnown(), true));
+		} else {
+			stack.setTopKnown(0, unknown);
 		}
 	}
 
-	private double parseDouble(String s) {
-		try {
-			return Double.parseDouble(s);
-		} catch (Exception e) {
-			return 1;
-		}
+	private static String operator(int opcode) {
+		return switch (opcode) {
+			case IADD, LADD, FADD, DADD -> "+";
+			case ISUB, LSUB, FSUB, DSUB -> "-";
+			case IMUL, LMUL, FMUL, DMUL -> "*";
+			case IDIV, LDIV, FDIV, DDIV -> "/";
+			case IREM, LREM, FREM, DREM -> "%";
+			case ISHL, LSHL -> "<<";
+			case ISHR, LSHR -> ">>";
+			case IUSHR, LUSHR -> ">>>";
+			case IAND, LAND -> "&";
+			case IOR, LOR -> "|";
+			default -> "^";
+		};
 	}
 
 	private void handleReturn(StackAlter alter) {
@@ -999,7 +946,7 @@ public class Simulator {
 			case FSTORE:
 			case LSTORE:
 			case ISTORE:
-				locals.set(((VarInsnNode) node).var, popped.get(0), instruction);
+				locals.set(((VarInsnNode) node).var, popped.get(0), poppedNumbers[0], instruction);
 		}
 	}
 
@@ -1012,18 +959,25 @@ public class Simulator {
 			case FLOAD:
 			case LLOAD:
 			case ILOAD: {
-				EntryValue value = stack.pop(locals.entries[((VarInsnNode) node).var].getType());
-				EntryValue parent = locals.get(((VarInsnNode) node).var, value.getType());
-				stack.push(parent.move(value.getType(), value.getSourceHistory().viewHistory().getLast()));
+				int var = ((VarInsnNode) node).var;
+				EntryValue value = stack.popSlot(locals.slot(var).getType());
+				EntryValue parent = locals.slot(var, value.getType());
+				stack.push(parent.move(value.getType(), instruction), locals.numberAt(var));
 				break;
 			}
 			case IINC: {
-				EntryValue parent = locals.get(((IincInsnNode) node).var, EntryType.INT);
-				if (isInt(parent.getKnownValue())) {
-					locals.entries[((IincInsnNode) node).var] = new EntryValue(EntryType.INT, instruction, List.of(parent), //
-							"" + (parseInt(parent.getKnownValue()) + ((IincInsnNode) node).incr));
+				IincInsnNode iinc = (IincInsnNode) node;
+				EntryValue parent = locals.slot(iinc.var, EntryType.INT);
+				if (!trackHistory && parent.isNumber()) {
+					locals.replace(iinc.var, parent, (int) locals.numberAt(iinc.var) + iinc.incr);
+					break;
+				}
+				parent = locals.getEntry(iinc.var);
+				KnownValue known = parent.getKnown().isInt() ? KnownValue.ofInt(parent.getKnown().intValue() + iinc.incr) : null;
+				if (!trackHistory) {
+					locals.replace(iinc.var, EntryValue.untracked(EntryType.INT).known(known));
 				} else {
-					locals.entries[((IincInsnNode) node).var] = new EntryValue(EntryType.INT, instruction, List.of(parent));
+					locals.replace(iinc.var, new EntryValue(EntryType.INT, instruction, List.of(parent), known));
 				}
 				break;
 			}
@@ -1036,83 +990,84 @@ public class Simulator {
 			switch (frame.type) {
 				case F_NEW:
 				case F_FULL:
+				case F_APPEND:
+				case F_CHOP:
+				case F_SAME:
+				case F_SAME1:
 					int offset = 0;
-					for (Object o : frame.local) {
+					// Compressed frames only hold what changed, InstructionSpec has already applied them to the frame before.
+					for (int l = 0; l < alter.frameLocals.size(); l++) {
+						Object o = alter.frameLocals.get(l);
 						if (o instanceof Integer i) {
 							switch (i) {
 								case 1:
-									locals.get(offset, EntryType.INT);
+									locals.slot(offset, EntryType.INT);
 									offset++;
 									break;
 								case 2:
-									locals.get(offset, EntryType.FLOAT);
+									locals.slot(offset, EntryType.FLOAT);
 									offset++;
 									break;
 								case 3:
-									locals.get(offset, EntryType.DOUBLE);
+									locals.slot(offset, EntryType.DOUBLE);
 									offset += 2;
 									break;
 								case 4:
-									locals.get(offset, EntryType.LONG);
+									locals.slot(offset, EntryType.LONG);
 									offset += 2;
 									break;
 								default:
-									throw new UnsupportedOperationException("Unexpected local type " + i);
+									throw new SimulationException(Code.FRAME, "Unexpected local type " + i);
 							}
 						} else if (o instanceof String) {
-							locals.get(offset, EntryType.REFERENCE);
+							locals.slot(offset, EntryType.REFERENCE);
 							offset++;
 						} else {
-							throw new UnsupportedOperationException("Unexpected frame local type " + o);
+							throw new SimulationException(Code.FRAME, "Unexpected frame local type " + o);
 						}
 					}
 					for (int i = offset; i < locals.count; i++) {
-						locals.set(i, new EntryValue(null), instruction);
+						locals.set(i, trackHistory ? new EntryValue(null) : EntryValue.untracked(null), instruction);
 					}
 
-					stack.entries.clear();
-					for (Object o : frame.stack) {
+					stack.clear();
+					for (int s = 0; frame.stack != null && s < frame.stack.size(); s++) {
+						Object o = frame.stack.get(s);
 						if (o instanceof Integer i) {
 							switch (i) {
 								case 1:
-									stack.entries.add(new EntryValue(EntryType.INT, instruction));
+									stack.push(value(EntryType.INT, instruction));
 									break;
 								case 2:
-									stack.entries.add(new EntryValue(EntryType.FLOAT, instruction));
+									stack.push(value(EntryType.FLOAT, instruction));
 									break;
 								case 3:
-									stack.entries.add(new EntryValue(EntryType.DOUBLE, instruction));
-									stack.entries.add(new EntryValue(EntryType.DOUBLE_2ND, instruction));
+									stack.push(value(EntryType.DOUBLE, instruction));
 									break;
 								case 4:
-									stack.entries.add(new EntryValue(EntryType.LONG, instruction));
-									stack.entries.add(new EntryValue(EntryType.LONG_2ND, instruction));
+									stack.push(value(EntryType.LONG, instruction));
 									break;
 								default:
-									throw new UnsupportedOperationException("Unexpected stack type " + i);
+									throw new SimulationException(Code.FRAME, "Unexpected stack type " + i);
 							}
 						} else if (o instanceof String) {
-							stack.entries.add(new EntryValue(EntryType.REFERENCE, instruction));
+							stack.push(value(EntryType.REFERENCE, instruction));
 						} else {
-							throw new UnsupportedOperationException("Unexpected frame stack type " + o);
+							throw new SimulationException(Code.FRAME, "Unexpected frame stack type " + o);
 						}
 
 					}
 
 					break;
-				case F_APPEND:
-				case F_CHOP:
-				case F_SAME:
-				case F_SAME1:
 				default:
-					throw new UnsupportedOperationException("Unsupported frame type " + frame.type);
+					throw new SimulationException(Code.FRAME, "Unsupported frame type " + frame.type);
 			}
 		}
 	}
 
 	public List<Label> getJumps() {
 		StackAlter alter = insts.alters.get(instruction);
-		if (alter.add.contains(StackOp.THROW)) {
+		if (alter.hasFlag(StackAlter.THROWS)) {
 			List<Label> throwTargets = new ArrayList<>();
 			var catches = getActiveCatches();
 			for (var tryCatch : catches) {
@@ -1120,11 +1075,10 @@ public class Simulator {
 			}
 			return throwTargets;
 		}
-		if (alter.add.contains(StackOp.RET)) {
+		if (alter.hasFlag(StackAlter.RETS)) {
 			VarInsnNode node = (VarInsnNode) alter.node;
 			EntryValue value = locals.get(node.var, EntryType.RETURN_ADDRESS);
-			var history = value.getSourceHistory().viewHistory();
-			int index = history.get(history.size() - 1);
+			int index = value.getSourceHistory().lastInstruction();
 			StackAlter labelAlter = insts.alters.get(index - 1);
 			return List.of(((LabelNode) labelAlter.node).getLabel());
 
@@ -1133,19 +1087,23 @@ public class Simulator {
 	}
 
 	public void purgeHistory() {
-		for (int i = 0; i < stack.entries.size(); i++) {
+		for (int i = 0; i < stack.getSize(); i++) {
+			var type = stack.getType(i);
+			if (type == EntryType.LONG_2ND || type == EntryType.DOUBLE_2ND) {
+				continue;
+			}
 			var entry = stack.entries.get(i);
 			var history = entry.getSourceHistory();
-			if (history.viewHistory().size() > 0 || !history.viewSources().isEmpty()) {
-				stack.entries.set(i, new EntryValue(entry.getType(), history.viewHistory().getLast(), entry.getKnownValue()));
+			if (history.historySize() > 0 || history.hasSources()) {
+				stack.set(i, new EntryValue(entry.getType(), history.lastInstruction(), entry.getKnown()));
 			}
 		}
 
-		for (int i = 0; i < locals.entries.length; i++) {
-			var entry = locals.entries[i];
+		for (int i = 0; i < locals.count; i++) {
+			var entry = locals.getEntry(i);
 			var history = entry.getSourceHistory();
-			if (history.viewHistory().size() > 0 || !history.viewSources().isEmpty()) {
-				locals.entries[i] = new EntryValue(entry.getType(), history.viewHistory().getLast(), entry.getKnownValue());
+			if (history.historySize() > 0 || history.hasSources()) {
+				locals.replace(i, new EntryValue(entry.getType(), history.lastInstruction(), entry.getKnown()));
 			}
 		}
 
@@ -1155,193 +1113,210 @@ public class Simulator {
 		ensureState(State.JUMP);
 		var inst = getInstruction();
 		var node = inst.node;
+		switch (node.getOpcode()) {
+			case RET -> {
+				// The return address is in a local rather than the instruction, getJumps reads it from there.
+				return Optional.of(getJumps().get(0));
+			}
+			case ATHROW -> {
+				// Which handler catches the exception, if any, depends on its class hierarchy.
+				return null;
+			}
+		}
 		if (inst.jumpTargets.isEmpty()) {
 			return Optional.empty();
 		}
 		switch (node.getOpcode()) {
 			case IFEQ -> {
-				if (isInt(popped.get(0).getKnownValue())) {
-					int v = parseInt(popped.get(0).getKnownValue());
+				if (isInt(0)) {
+					int v = intAt(0);
 					if (v == 0) {
-						return Optional.of(inst.jumpTargets.get(0));
+						return inst.expectedTargets.get(0);
 					} else {
 						return Optional.empty();
 					}
 				}
 			}
 			case IFNE -> {
-				if (isInt(popped.get(0).getKnownValue())) {
-					int v = parseInt(popped.get(0).getKnownValue());
+				if (isInt(0)) {
+					int v = intAt(0);
 					if (v != 0) {
-						return Optional.of(inst.jumpTargets.get(0));
+						return inst.expectedTargets.get(0);
 					} else {
 						return Optional.empty();
 					}
 				}
 			}
 			case IFLT -> {
-				if (isInt(popped.get(0).getKnownValue())) {
-					int v = parseInt(popped.get(0).getKnownValue());
+				if (isInt(0)) {
+					int v = intAt(0);
 					if (v < 0) {
-						return Optional.of(inst.jumpTargets.get(0));
+						return inst.expectedTargets.get(0);
 					} else {
 						return Optional.empty();
 					}
 				}
 			}
 			case IFGE -> {
-				if (isInt(popped.get(0).getKnownValue())) {
-					int v = parseInt(popped.get(0).getKnownValue());
+				if (isInt(0)) {
+					int v = intAt(0);
 					if (v >= 0) {
-						return Optional.of(inst.jumpTargets.get(0));
+						return inst.expectedTargets.get(0);
 					} else {
 						return Optional.empty();
 					}
 				}
 			}
 			case IFGT -> {
-				if (isInt(popped.get(0).getKnownValue())) {
-					int v = parseInt(popped.get(0).getKnownValue());
+				if (isInt(0)) {
+					int v = intAt(0);
 					if (v > 0) {
-						return Optional.of(inst.jumpTargets.get(0));
+						return inst.expectedTargets.get(0);
 					} else {
 						return Optional.empty();
 					}
 				}
 			}
 			case IFLE -> {
-				if (isInt(popped.get(0).getKnownValue())) {
-					int v = parseInt(popped.get(0).getKnownValue());
+				if (isInt(0)) {
+					int v = intAt(0);
 					if (v <= 0) {
-						return Optional.of(inst.jumpTargets.get(0));
+						return inst.expectedTargets.get(0);
 					} else {
 						return Optional.empty();
 					}
 				}
 			}
 			case IF_ICMPEQ -> {
-				if (isInt(popped.get(0).getKnownValue()) && isInt(popped.get(1).getKnownValue())) {
-					int v2 = parseInt(popped.get(0).getKnownValue());
-					int v1 = parseInt(popped.get(1).getKnownValue());
+				if (isInt(0) && isInt(1)) {
+					int v2 = intAt(0);
+					int v1 = intAt(1);
 					if (v1 == v2) {
-						return Optional.of(inst.jumpTargets.get(0));
+						return inst.expectedTargets.get(0);
 					} else {
 						return Optional.empty();
 					}
 				}
 			}
 			case IF_ICMPNE -> {
-				if (isInt(popped.get(0).getKnownValue()) && isInt(popped.get(1).getKnownValue())) {
-					int v2 = parseInt(popped.get(0).getKnownValue());
-					int v1 = parseInt(popped.get(1).getKnownValue());
+				if (isInt(0) && isInt(1)) {
+					int v2 = intAt(0);
+					int v1 = intAt(1);
 					if (v1 != v2) {
-						return Optional.of(inst.jumpTargets.get(0));
+						return inst.expectedTargets.get(0);
 					} else {
 						return Optional.empty();
 					}
 				}
 			}
 			case IF_ICMPLT -> {
-				if (isInt(popped.get(0).getKnownValue()) && isInt(popped.get(1).getKnownValue())) {
-					int v2 = parseInt(popped.get(0).getKnownValue());
-					int v1 = parseInt(popped.get(1).getKnownValue());
+				if (isInt(0) && isInt(1)) {
+					int v2 = intAt(0);
+					int v1 = intAt(1);
 					if (v1 < v2) {
-						return Optional.of(inst.jumpTargets.get(0));
+						return inst.expectedTargets.get(0);
 					} else {
 						return Optional.empty();
 					}
 				}
 			}
 			case IF_ICMPGE -> {
-				if (isInt(popped.get(0).getKnownValue()) && isInt(popped.get(1).getKnownValue())) {
-					int v2 = parseInt(popped.get(0).getKnownValue());
-					int v1 = parseInt(popped.get(1).getKnownValue());
+				if (isInt(0) && isInt(1)) {
+					int v2 = intAt(0);
+					int v1 = intAt(1);
 					if (v1 >= v2) {
-						return Optional.of(inst.jumpTargets.get(0));
+						return inst.expectedTargets.get(0);
 					} else {
 						return Optional.empty();
 					}
 				}
 			}
 			case IF_ICMPGT -> {
-				if (isInt(popped.get(0).getKnownValue()) && isInt(popped.get(1).getKnownValue())) {
-					int v2 = parseInt(popped.get(0).getKnownValue());
-					int v1 = parseInt(popped.get(1).getKnownValue());
+				if (isInt(0) && isInt(1)) {
+					int v2 = intAt(0);
+					int v1 = intAt(1);
 					if (v1 > v2) {
-						return Optional.of(inst.jumpTargets.get(0));
+						return inst.expectedTargets.get(0);
 					} else {
 						return Optional.empty();
 					}
 				}
 			}
 			case IF_ICMPLE -> {
-				if (isInt(popped.get(0).getKnownValue()) && isInt(popped.get(1).getKnownValue())) {
-					int v2 = parseInt(popped.get(0).getKnownValue());
-					int v1 = parseInt(popped.get(1).getKnownValue());
+				if (isInt(0) && isInt(1)) {
+					int v2 = intAt(0);
+					int v1 = intAt(1);
 					if (v1 <= v2) {
-						return Optional.of(inst.jumpTargets.get(0));
+						return inst.expectedTargets.get(0);
 					} else {
 						return Optional.empty();
 					}
 				}
 			}
 			case IF_ACMPEQ -> {
-				String known = popped.get(0).getKnownValue();
-				if (known.endsWith("Type: null")) {
-					String known2 = popped.get(1).getKnownValue();
-					if (known2.endsWith("Type: null")) {
-						return Optional.of(inst.jumpTargets.get(0));
-					}
+				KnownValue known = popped.get(0).getKnown();
+				KnownValue known2 = popped.get(1).getKnown();
+				if (known.isNull() && known2.isNull()) {
+					return inst.expectedTargets.get(0);
+				}
+				if ((known.isNull() && known2.isNonNull()) || (known.isNonNull() && known2.isNull())) {
+					return Optional.empty();
 				}
 			}
 			case IF_ACMPNE -> {
-				String known = popped.get(0).getKnownValue();
-				if (known.endsWith("Type: null")) {
-					String known2 = popped.get(1).getKnownValue();
-					if (known2.endsWith("Type: null")) {
-						return Optional.empty();
-					}
+				KnownValue known = popped.get(0).getKnown();
+				KnownValue known2 = popped.get(1).getKnown();
+				if (known.isNull() && known2.isNull()) {
+					return Optional.empty();
+				}
+				if ((known.isNull() && known2.isNonNull()) || (known.isNonNull() && known2.isNull())) {
+					return inst.expectedTargets.get(0);
 				}
 			}
 			case GOTO -> {
-				return Optional.of(inst.jumpTargets.get(0));
+				return inst.expectedTargets.get(0);
 			}
 			case JSR -> {
-				return Optional.of(inst.jumpTargets.get(0));
+				return inst.expectedTargets.get(0);
 			}
 			case IFNULL -> {
-				String known = popped.get(0).getKnownValue();
-				if (known.endsWith("Type: null")) {
-					return Optional.of(inst.jumpTargets.get(0));
+				KnownValue known = popped.get(0).getKnown();
+				if (known.isNull()) {
+					return inst.expectedTargets.get(0);
+				}
+				if (known.isNonNull()) {
+					return Optional.empty();
 				}
 			}
 			case IFNONNULL -> {
-				String known = popped.get(0).getKnownValue();
-				if (known.endsWith("Type: null")) {
+				KnownValue known = popped.get(0).getKnown();
+				if (known.isNull()) {
 					return Optional.empty();
 				}
+				if (known.isNonNull()) {
+					return inst.expectedTargets.get(0);
+				}
 			}
 			case TABLESWITCH -> {
 				var sw = (TableSwitchInsnNode) node;
-				String known = popped.get(0).getKnownValue();
-				if (isInt(known)) {
-					int value = parseInt(known);
+				if (isInt(0)) {
+					int value = intAt(0);
 					if (value >= sw.min && value <= sw.max) {
-						return Optional.of(sw.labels.get(value - sw.min).getLabel());
+						return inst.expectedTargets.get(value - sw.min + 1);
 					} else {
-						return Optional.of(sw.dflt.getLabel());
+						return inst.expectedTargets.get(0);
 					}
 				}
 			}
 			case LOOKUPSWITCH -> {
 				var sw = (LookupSwitchInsnNode) node;
-				String known = popped.get(0).getKnownValue();
-				if (isInt(known)) {
-					int value = parseInt(known);
-					if (sw.keys.contains(value)) {
-						return Optional.of(sw.labels.get(sw.keys.indexOf(value)).getLabel());
+				if (isInt(0)) {
+					int value = intAt(0);
+					int key = keyIndex(sw.keys, value);
+					if (key >= 0) {
+						return inst.expectedTargets.get(key);
 					} else {
-						return Optional.of(sw.dflt.getLabel());
+						return inst.expectedTargets.getLast();
 					}
 				}
 			}
@@ -1349,6 +1324,24 @@ public class Simulator {
 		return null;
 	}
 
+	// Collections.binarySearch without boxing the value, the keys of a lookup switch are sorted.
+	private static int keyIndex(List<Integer> keys, int value) {
+		int low = 0;
+		int high = keys.size() - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int key = keys.get(mid);
+			if (key < value) {
+				low = mid + 1;
+			} else if (key > value) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+
 	public void performJump(Label l) {
 		try {
 			if (l == null) {
@@ -1360,32 +1353,23 @@ public class Simulator {
 				}
 				return;
 			}
-			for (int i = 0; i < insts.alters.size(); i++) {
-				StackAlter alter = insts.alters.get(i);
-				if (alter.node instanceof LabelNode node) {
-					if (node.getLabel().equals(l)) {
-						instruction = i;
-						state = State.POP;
-						return;
-					}
-				}
-			}
-			throw new IllegalStateException("Invalid jump label.");
+			instruction = insts.indexOf(l);
+			state = State.POP;
 		} catch (Exception e) {
-			e.printStackTrace();
-			state = State.ERRORED;
-			errorMessage = e.getMessage();
+			fail(e);
+		} finally {
+			record();
 		}
 	}
 
 	public String currentInstruction() {
-		return insts.toString(insts.alters.get(instruction).node);
+		return insts.toString(instruction);
 	}
 
 	public String toString() {
 		StringBuilder sb = new StringBuilder();
-		for (StackAlter alter : insts.alters) {
-			sb.append(insts.toString(alter.node));
+		for (int i = 0; i < insts.alters.size(); i++) {
+			sb.append(insts.toString(i));
 			sb.append("\n");
 		}
 		return sb.toString();
@@ -1395,4 +1379,46 @@ public class Simulator {
 		return insts.alters.get(instruction);
 	}
 
+	/**
+	 * Hash of the instruction, state, stack and locals that ignores history, built from hashes the stack and locals keep up to date.
+	 */
+	public int stateHash() {
+		return ((31 * instruction + state.ordinal()) * 31 + stack.stateHash()) * 31 + locals.stateHash();
+	}
+
+	/**
+	 * True if both simulators are at the same instruction and state with the same stack and local types and known values, whatever the history.
+	 */
+	public boolean stateEquals(Simulator other) {
+		return instruction == other.instruction && state == other.state && stack.stateEquals(other.stack) && locals.stateEquals(other.locals);
+	}
+
+	/**
+	 * A snapshot of the current state for a visited set. The snapshot is a copy-on-write copy, so nothing is copied until this simulator next writes.
+	 */
+	public StateKey stateKey() {
+		// The key never steps, so it does not share the popped values and make the next pop copy them.
+		return new StateKey(new Simulator(this, false));
+	}
+
+	public static final class StateKey {
+
+		private final Simulator state;
+		private final int hash;
+
+		StateKey(Simulator state) {
+			this.state = state;
+			this.hash = state.stateHash();
+		}
+
+		public boolean equals(Object obj) {
+			return obj instanceof StateKey other && hash == other.hash && state.stateEquals(other.state);
+		}
+
+		public int hashCode() {
+			return hash;
+		}
+
+	}
+
 }
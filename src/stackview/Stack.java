@@ -1,26 +1,100 @@
 package stackview;
 
-import java.util.ArrayList;
+import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.objectweb.asm.Type;
 
+import stackview.SimulationError.Code;
+
 public class Stack {
 
-	public List<EntryValue> entries = new ArrayList<>();
+	private static final EntryType[] TYPES = EntryType.values();
+
+	// Type tags and values are stored per slot, the second half of a long or double shares the value of its first half.
+	private byte[] types;
+	private EntryValue[] values;
+	// The number of a slot whose value is EntryValue.number, at both halves of a long or double. Read by the simulator just after a pop too.
+	private long[] numbers;
+	private int size;
+	// Set while the arrays may be shared with a copy, they are cloned before the next write.
+	private boolean shared;
+	// Sum of slotHash over the occupied slots, kept up to date by every write.
+	private int stateHash;
+
+	public final List<EntryValue> entries = new EntriesView();
 	public int max;
 
 	public Stack(int stackSize) {
 		max = stackSize;
+		types = new byte[stackSize];
+		values = new EntryValue[stackSize];
+		numbers = new long[stackSize];
 	}
 
 	public Stack(Stack other) {
-		this.entries.addAll(other.entries);
 		this.max = other.max;
+		this.types = other.types;
+		this.values = other.values;
+		this.numbers = other.numbers;
+		this.size = other.size;
+		this.stateHash = other.stateHash;
+		this.shared = true;
+		other.shared = true;
+	}
+
+	private void own() {
+		if (shared) {
+			types = types.clone();
+			values = values.clone();
+			numbers = numbers.clone();
+			shared = false;
+		}
 	}
 
 	public int getSize() {
-		return entries.size();
+		return size;
+	}
+
+	public EntryType getType(int index) {
+		return TYPES[types[index]];
+	}
+
+	public void clear() {
+		own();
+		Arrays.fill(values, 0, size, null);
+		size = 0;
+		stateHash = 0;
+	}
+
+	private int slotHash(int index) {
+		return (values[index].stateHash(numbers[index]) * 31 + types[index] ^ index * 0x9E3779B9) * 0x85EBCA6B;
+	}
+
+	/**
+	 * Hash of the slot types and known values, ignoring history. Updated on every push, pop and replacement so reading it is free.
+	 */
+	public int stateHash() {
+		return stateHash;
+	}
+
+	/**
+	 * True if both stacks hold the same types and known values, whatever the history.
+	 */
+	public boolean stateEquals(Stack other) {
+		if (size != other.size || stateHash != other.stateHash) {
+			return false;
+		}
+		if (types == other.types && values == other.values && numbers == other.numbers) {
+			return true;
+		}
+		for (int i = 0; i < size; i++) {
+			if (types[i] != other.types[i] || !values[i].stateEquals(numbers[i], other.values[i], other.numbers[i])) {
+				return false;
+			}
+		}
+		return true;
 	}
 
 	public String toString() {
@@ -28,99 +102,146 @@ public class Stack {
 	}
 
 	public EntryValue popRefOrRet() {
-		if (entries.isEmpty()) {
-			throw new IllegalStateException("Cannot pop from empty stack.");
+		if (size == 0) {
+			throw new SimulationException(Code.STACK_UNDERFLOW, "Cannot pop from empty stack.");
 		}
 
-		EntryValue there = entries.get(entries.size() - 1);
+		EntryType there = getType(size - 1);
 
-		if (there.getType() != EntryType.REFERENCE && there.getType() != EntryType.RETURN_ADDRESS) {
-			throw new IllegalStateException("Cannot pop " + there + " as a reference or return address.");
+		if (there != EntryType.REFERENCE && there != EntryType.RETURN_ADDRESS) {
+			throw new SimulationException(Code.STACK_TYPE, "Cannot pop " + there + " as a reference or return address.");
 		}
-		entries.remove(entries.size() - 1);
 
-		return there;
+		return removeTop();
 	}
 
 	public EntryValue popAny1() {
-		if (entries.isEmpty()) {
-			throw new IllegalStateException("Cannot pop from empty stack.");
+		return entry(popAny1Slot(), size);
+	}
+
+	EntryValue popAny1Slot() {
+		if (size == 0) {
+			throw new SimulationException(Code.STACK_UNDERFLOW, "Cannot pop from empty stack.");
 		}
 
-		EntryValue there = entries.get(entries.size() - 1);
+		EntryType there = getType(size - 1);
 
-		if (there.getType() == EntryType.LONG_2ND || there.getType() == EntryType.DOUBLE_2ND) {
-			throw new IllegalStateException("Cannot pop single " + there + " from stack.");
+		if (there == EntryType.LONG_2ND || there == EntryType.DOUBLE_2ND) {
+			throw new SimulationException(Code.STACK_TYPE, "Cannot pop single " + there + " from stack.");
 		}
-		entries.remove(entries.size() - 1);
 
-		return there;
+		return removeTop();
 	}
 
 	public EntryValue[] popAny2() {
-		if (entries.size() < 2) {
-			throw new IllegalStateException("Cannot pop 2 from stack with less than 2 elements.");
-		}
+		return popAny2(new EntryValue[2]);
+	}
 
-		EntryValue there = entries.get(entries.size() - 1);
-		EntryValue there2 = entries.get(entries.size() - 2);
+	/**
+	 * Pops two slots into the given array instead of a new one, bottom slot first.
+	 */
+	public EntryValue[] popAny2(EntryValue[] into) {
+		popAny2Slots(into);
+		into[0] = entry(into[0], size);
+		into[1] = entry(into[1], size + 1);
+		return into;
+	}
 
-		if (there2.getType() == EntryType.LONG_2ND || there2.getType() == EntryType.DOUBLE_2ND) {
-			throw new IllegalStateException("Cannot pop single " + there2 + " from stack.");
+	/**
+	 * popAny2 that leaves known numbers as EntryValue.number, their numbers are at numberAt(getSize()) and numberAt(getSize() + 1) afterwards.
+	 */
+	EntryValue[] popAny2Slots(EntryValue[] into) {
+		if (size < 2) {
+			throw new SimulationException(Code.STACK_UNDERFLOW, "Cannot pop 2 from stack with less than 2 elements.");
 		}
 
-		entries.remove(entries.size() - 1);
-		entries.remove(entries.size() - 1);
+		EntryType there2 = getType(size - 2);
 
-		return new EntryValue[] { there2, there };
+		if (there2 == EntryType.LONG_2ND || there2 == EntryType.DOUBLE_2ND) {
+			throw new SimulationException(Code.STACK_TYPE, "Cannot pop single " + there2 + " from stack.");
+		}
+
+		into[0] = values[size - 2];
+		into[1] = slotAt(size - 1);
+		removeTop();
+		removeTop();
+		return into;
 	}
 
 	public void push2(EntryValue[] values) {
-		if (values.length != 2) throw new IllegalStateException("Can't push 2 " + values.length + " != 2 values.");
+		if (values.length != 2) throw new SimulationException(Code.STACK_TYPE, "Can't push 2 " + values.length + " != 2 values.");
+		push2(values[0], values[1]);
+	}
+
+	public void push2(EntryValue first, EntryValue second) {
+		push2(first, 0, second, 0);
+	}
+
+	/**
+	 * push2 for values that may be EntryValue.number, with their numbers.
+	 */
+	void push2(EntryValue first, long firstNumber, EntryValue second, long secondNumber) {
 		if (getSize() + 2 > max) {
-			throw new IllegalStateException("Cannot push 2 to full stack.");
+			throw new SimulationException(Code.STACK_OVERFLOW, "Cannot push 2 to full stack.");
 		}
-		push(values[0]);
-		if (values[0].getType() == EntryType.LONG) {
-			if (values[1].getType() != EntryType.LONG_2ND) {
-				throw new IllegalStateException("Invalid long push, " + values[1] + " != " + EntryType.LONG_2ND);
+		push(first, firstNumber);
+		if (first.getType() == EntryType.LONG) {
+			if (second.getType() != EntryType.LONG_2ND) {
+				throw new SimulationException(Code.STACK_TYPE, "Invalid long push, " + second + " != " + EntryType.LONG_2ND);
 			}
 			return;
 		}
-		if (values[0].getType() == EntryType.DOUBLE) {
-			if (values[1].getType() != EntryType.DOUBLE_2ND) {
-				throw new IllegalStateException("Invalid double push, " + values[1] + " != " + EntryType.DOUBLE_2ND);
+		if (first.getType() == EntryType.DOUBLE) {
+			if (second.getType() != EntryType.DOUBLE_2ND) {
+				throw new SimulationException(Code.STACK_TYPE, "Invalid double push, " + second + " != " + EntryType.DOUBLE_2ND);
 			}
 			return;
 		}
-		push(values[1]);
+		push(second, secondNumber);
 
 	}
 
 	public EntryValue pop(EntryType type) {
-		if (type == EntryType.LONG_2ND || type == EntryType.DOUBLE_2ND) throw new IllegalStateException("Cannot pop " + type + " from stack.");
-		return popImpl(type);
+		return entry(popSlot(type), size);
 	}
 
-	private EntryValue popImpl(EntryType type) {
-		if (entries.isEmpty()) {
-			throw new IllegalStateException("Cannot pop " + type + " from empty stack.");
-		}
-
+	/**
+	 * pop that leaves a known number as EntryValue.number, its number is at numberAt(getSize()) afterwards.
+	 */
+	EntryValue popSlot(EntryType type) {
+		if (type == EntryType.LONG_2ND || type == EntryType.DOUBLE_2ND) throw new SimulationException(Code.STACK_TYPE, "Cannot pop " + type + " from stack.");
 		if (type == EntryType.LONG) {
-			popImpl(EntryType.LONG_2ND);
+			checkTop(EntryType.LONG_2ND, 0);
+			checkTop(EntryType.LONG, 1);
+			removeTop();
+			return removeTop();
 		}
-
 		if (type == EntryType.DOUBLE) {
-			popImpl(EntryType.DOUBLE_2ND);
+			checkTop(EntryType.DOUBLE_2ND, 0);
+			checkTop(EntryType.DOUBLE, 1);
+			removeTop();
+			return removeTop();
 		}
+		checkTop(type, 0);
+		return removeTop();
+	}
 
-		EntryValue there = entries.get(entries.size() - 1);
-		if (there.getType() == type) {
-			entries.remove(entries.size() - 1);
-		} else {
-			throw new IllegalStateException("Cannot pop " + type + " from stack, " + there + " is on top.");
+	private void checkTop(EntryType type, int down) {
+		if (size - down <= 0) {
+			throw new SimulationException(Code.STACK_UNDERFLOW, "Cannot pop " + type + " from empty stack.");
+		}
+		EntryType there = getType(size - 1 - down);
+		if (there != type) {
+			throw new SimulationException(Code.STACK_TYPE, "Cannot pop " + type + " from stack, " + there + " is on top.");
 		}
+	}
+
+	private EntryValue removeTop() {
+		own();
+		size--;
+		stateHash -= slotHash(size);
+		EntryValue there = values[size];
+		values[size] = null;
 		return there;
 	}
 
@@ -129,56 +250,219 @@ public class Stack {
 	}
 
 	public void push(EntryValue value) {
-		if (value.getType() == EntryType.LONG_2ND || value.getType() == EntryType.DOUBLE_2ND) throw new IllegalStateException("Cannot push " + value.getType() + " from stack.");
-		pushImpl(value);
+		push(value, 0);
 	}
 
-	public EntryValue getTop(int down) {
-		for (int i = entries.size() - 1; i >= entries.size() - 1 - down; i--) {
-			if (entries.get(i).getType() == EntryType.DOUBLE_2ND) {
-				down++;
+	/**
+	 * push for a value that may be EntryValue.number, with its number.
+	 */
+	void push(EntryValue value, long number) {
+		if (value.storesAsNumber()) {
+			number = KnownValue.bits(value.getKnown());
+			value = EntryValue.number(value.getType());
+		}
+		EntryType type = value.getType();
+		if (type == EntryType.LONG_2ND || type == EntryType.DOUBLE_2ND) throw new SimulationException(Code.STACK_TYPE, "Cannot push " + type + " from stack.");
+		int slots = type == EntryType.LONG || type == EntryType.DOUBLE ? 2 : 1;
+		if (size + slots > max) {
+			throw new SimulationException(Code.STACK_OVERFLOW, "Cannot push " + type + " to full stack.");
+		}
+		own();
+		types[size] = (byte) type.ordinal();
+		values[size] = value;
+		numbers[size] = number;
+		stateHash += slotHash(size);
+		size++;
+		if (type == EntryType.LONG) {
+			types[size] = (byte) EntryType.LONG_2ND.ordinal();
+			values[size] = value;
+			numbers[size] = number;
+			stateHash += slotHash(size);
+			size++;
+		} else if (type == EntryType.DOUBLE) {
+			types[size] = (byte) EntryType.DOUBLE_2ND.ordinal();
+			values[size] = value;
+			numbers[size] = number;
+			stateHash += slotHash(size);
+			size++;
+		}
+	}
+
+	private int topIndex(int down) {
+		for (int i = size - 1; i >= 0; i--) {
+			byte type = types[i];
+			if (type == EntryType.LONG_2ND.ordinal() || type == EntryType.DOUBLE_2ND.ordinal()) {
 				continue;
 			}
-			if (entries.get(i).getType() == EntryType.LONG_2ND) {
-				down++;
-				continue;
+			if (down == 0) {
+				return i;
 			}
-			if (i == entries.size() - 1 - down) {
-				return entries.get(i);
+			down--;
+		}
+		return -1;
+	}
+
+	public EntryValue getTop(int down) {
+		int i = topIndex(down);
+		return i == -1 ? null : entry(values[i], i);
+	}
+
+	public void setTopKnown(int down, KnownValue s) {
+		int i = topIndex(down);
+		if (i != -1) {
+			own();
+			EntryValue value = values[i];
+			if (!value.isTracked() && s.getKind() == EntryValue.numberKind(value.getType())) {
+				replace(i, EntryValue.number(value.getType()), KnownValue.bits(s));
+			} else {
+				replace(i, (value.isNumber() ? EntryValue.untracked(value.getType()) : value).known(s), 0);
 			}
 		}
-		return null;
 	}
 
-	public void setTopKnown(int down, String s) {
-		for (int i = entries.size() - 1; i >= entries.size() - 1 - down; i--) {
-			if (entries.get(i).getType() == EntryType.DOUBLE_2ND) {
-				down++;
-				continue;
+	/**
+	 * Sets the known value of the top slot to a number of its type, encoded as KnownValue.bits does. Without history nothing is allocated.
+	 */
+	void setTopNumber(long number) {
+		int i = topIndex(0);
+		if (i != -1) {
+			own();
+			EntryValue value = values[i];
+			if (!value.isTracked()) {
+				replace(i, EntryValue.number(value.getType()), number);
+			} else {
+				replace(i, value.known(KnownValue.ofBits(EntryValue.numberKind(value.getType()), number)), 0);
 			}
-			if (entries.get(i).getType() == EntryType.LONG_2ND) {
-				down++;
-				continue;
+		}
+	}
+
+	/**
+	 * The number of a slot holding EntryValue.number. Slots just popped keep theirs until something is pushed over them.
+	 */
+	long numberAt(int index) {
+		return numbers[index];
+	}
+
+	/**
+	 * Replaces the value at a stack index, for a long or double the index of the first half.
+	 */
+	public void set(int index, EntryValue value) {
+		if (value.getType() != getType(index)) {
+			throw new SimulationException(Code.STACK_TYPE, "Cannot replace " + getType(index) + " with " + value.getType());
+		}
+		own();
+		replace(index, value, 0);
+	}
+
+	private void replace(int index, EntryValue value, long number) {
+		if (value.storesAsNumber()) {
+			number = KnownValue.bits(value.getKnown());
+			value = EntryValue.number(value.getType());
+		}
+		stateHash -= slotHash(index);
+		values[index] = value;
+		numbers[index] = number;
+		stateHash += slotHash(index);
+		EntryType type = getType(index);
+		if (type == EntryType.LONG || type == EntryType.DOUBLE) {
+			stateHash -= slotHash(index + 1);
+			values[index + 1] = value;
+			numbers[index + 1] = number;
+			stateHash += slotHash(index + 1);
+		}
+	}
+
+	/**
+	 * The number of bottom slots holding the same types and values as the slots of a stack of the given size, as copyTo left them.
+	 */
+	int commonPrefix(byte[] otherTypes, EntryValue[] otherValues, long[] otherNumbers, int otherSize) {
+		int common = Math.min(size, otherSize);
+		for (int i = 0; i < common; i++) {
+			if (types[i] != otherTypes[i] || values[i] != otherValues[i] || values[i].isNumber() && numbers[i] != otherNumbers[i]) {
+				return i;
 			}
-			if (i == entries.size() - 1 - down) {
-				entries.set(i, entries.get(i).known(s));
-				return;
+		}
+		return common;
+	}
+
+	EntryValue[] copyValues(int from) {
+		EntryValue[] copy = new EntryValue[size - from];
+		for (int i = from; i < size; i++) {
+			copy[i - from] = entry(values[i], i);
+		}
+		return copy;
+	}
+
+	/**
+	 * Copies the slots from the given one up to the top into arrays of at least max slots, at the same indices. Known numbers are copied as
+	 * EntryValue.number and their numbers.
+	 */
+	void copyTo(int from, byte[] intoTypes, EntryValue[] intoValues, long[] intoNumbers) {
+		System.arraycopy(types, from, intoTypes, from, size - from);
+		System.arraycopy(values, from, intoValues, from, size - from);
+		System.arraycopy(numbers, from, intoNumbers, from, size - from);
+	}
+
+	/**
+	 * Keeps the bottom slots and replaces everything above them with the given slots.
+	 */
+	void restore(int keep, byte[] tailTypes, EntryValue[] tailValues) {
+		restore(keep, tailTypes, tailValues, null);
+	}
+
+	/**
+	 * restore for slots as copyTo leaves them, where a value that is EntryValue.number has its number in tailNumbers.
+	 */
+	void restore(int keep, byte[] tailTypes, EntryValue[] tailValues, long[] tailNumbers) {
+		own();
+		for (int i = keep; i < size; i++) {
+			stateHash -= slotHash(i);
+		}
+		Arrays.fill(values, keep, size, null);
+		System.arraycopy(tailTypes, 0, types, keep, tailTypes.length);
+		for (int i = 0; i < tailValues.length; i++) {
+			EntryValue value = tailValues[i];
+			long number = tailNumbers == null ? 0 : tailNumbers[i];
+			if (value.storesAsNumber()) {
+				number = KnownValue.bits(value.getKnown());
+				value = EntryValue.number(value.getType());
 			}
+			values[keep + i] = value;
+			numbers[keep + i] = number;
 		}
+		size = keep + tailTypes.length;
+		for (int i = keep; i < size; i++) {
+			stateHash += slotHash(i);
+		}
+	}
+
+	private EntryValue entryAt(int index) {
+		return entry(slotAt(index), index);
 	}
 
-	private void pushImpl(EntryValue value) {
-		if (getSize() + 1 > max) {
-			throw new IllegalStateException("Cannot push " + value.getType() + " to full stack.");
+	// The value of a slot as popAny2Slots gives it, a second half gets its own value.
+	private EntryValue slotAt(int index) {
+		EntryType type = getType(index);
+		if (type == EntryType.LONG_2ND || type == EntryType.DOUBLE_2ND) {
+			return values[index].isTracked() ? new EntryValue(type, values[index].getSourceHistory()) : EntryValue.untracked(type);
 		}
-		entries.add(value);
+		return values[index];
+	}
+
+	// The value a slot stands for, creating it if the slot keeps a number.
+	private EntryValue entry(EntryValue value, int index) {
+		return value.isNumber() ? EntryValue.ofNumber(value.getType(), numbers[index]) : value;
+	}
+
+	private class EntriesView extends AbstractList<EntryValue> {
 
-		if (value.getType() == EntryType.LONG) {
-			pushImpl(new EntryValue(EntryType.LONG_2ND, value.getSourceHistory()));
+		public EntryValue get(int index) {
+			if (index < 0 || index >= size) throw new IndexOutOfBoundsException(index);
+			return entryAt(index);
 		}
 
-		if (value.getType() == EntryType.DOUBLE) {
-			pushImpl(new EntryValue(EntryType.DOUBLE_2ND, value.getSourceHistory()));
+		public int size() {
+			return size;
 		}
 	}
 
@@ -1,7 +1,8 @@
 package stackview;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Optional;
 
 import org.objectweb.asm.Label;
 import org.objectweb.asm.tree.AbstractInsnNode;
@@ -11,36 +12,102 @@ import stackview.Stack.StackOp;
 
 public class StackAlter {
 
+	static final StackOp[] OPS = StackOp.values();
+
+	public static final int THROWS = 1;
+	public static final int RETS = 2;
+	public static final int JUMPS = 4;
+	public static final int FRAME = 8;
+
+	private static final byte[] NO_OPS = new byte[0];
+
 	public AbstractInsnNode node;
 
-	List<Label> jumpTargets = new ArrayList<>();
-	List<StackOp> remove = new ArrayList<>();
-	List<StackOp> add = new ArrayList<>();
+	List<Label> jumpTargets = List.of();
+	int[] jumpIndices;
+	// StackOp ordinals, shared and never written to. Instructions with a fixed effect all point at the same arrays from OpcodeEffects.
+	byte[] remove = NO_OPS;
+	byte[] add = NO_OPS;
+	// THROWS, RETS, JUMPS and FRAME for the ops in add.
+	int flags;
+	// For a frame, the full locals it describes. Compressed frames share the list of the frame before them unless they change it.
+	List<Object> frameLocals;
+	// What the simulator last worked out this instruction pushes when it is the same every time, such as the reference of a NEW or an array
+	// of a known length, so running it again in a loop reuses it.
+	KnownValue known;
+	// jumpTargets wrapped once, so Simulator.getExpectedJumpTarget returns them without allocating.
+	List<Optional<Label>> expectedTargets = List.of();
+
+	static record Effect(byte[] remove, byte[] add, int flags) {}
 
 	public StackAlter(AbstractInsnNode node) {
 		this.node = node;
 	}
 
+	StackAlter(AbstractInsnNode node, Effect effect) {
+		this.node = node;
+		this.remove = effect.remove();
+		this.add = effect.add();
+		this.flags = effect.flags();
+	}
+
 	public static StackAlter alter(AbstractInsnNode node) {
 		return new StackAlter(node);
 	}
 
+	static StackAlter alter(AbstractInsnNode node, Effect effect) {
+		return new StackAlter(node, effect);
+	}
+
 	public StackAlter add(StackOp... entries) {
-		for (var v : entries) {
-			add.add(v);
+		add = append(add, entries);
+		for (StackOp op : entries) {
+			flags |= switch (op) {
+				case THROW -> THROWS;
+				case RET -> RETS;
+				case JUMP -> JUMPS;
+				case FRAME -> FRAME;
+				default -> 0;
+			};
 		}
 		return this;
 	}
 
 	public StackAlter remove(StackOp... entries) {
-		for (var v : entries) {
-			remove.add(v);
-		}
+		remove = append(remove, entries);
 		return this;
 	}
 
+	private static byte[] append(byte[] ops, StackOp[] entries) {
+		byte[] all = Arrays.copyOf(ops, ops.length + entries.length);
+		for (int i = 0; i < entries.length; i++) {
+			all[ops.length + i] = (byte) entries[i].ordinal();
+		}
+		return all;
+	}
+
+	public boolean hasFlag(int flag) {
+		return (flags & flag) != 0;
+	}
+
+	public List<StackOp> getRemoved() {
+		return decode(remove);
+	}
+
+	public List<StackOp> getAdded() {
+		return decode(add);
+	}
+
+	private static List<StackOp> decode(byte[] ops) {
+		StackOp[] decoded = new StackOp[ops.length];
+		for (int i = 0; i < ops.length; i++) {
+			decoded[i] = OPS[ops[i]];
+		}
+		return List.of(decoded);
+	}
+
 	public String toString() {
-		return "StackAlter [" + (node != null ? "node=" + Printer.OPCODES[node.getOpcode()] + ", " : "") + (remove != null ? "remove=" + remove + ", " : "") + (add != null ? "add=" + add : "") + "]";
+		return "StackAlter [" + (node != null ? "node=" + Printer.OPCODES[node.getOpcode()] + ", " : "") + "remove=" + getRemoved() + ", " + "add=" + getAdded() + "]";
 	}
 
-}
\ No newline at end of file
+}
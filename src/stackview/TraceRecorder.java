@@ -0,0 +1,319 @@
+package stackview;
+
+import static java.nio.file.StandardOpenOption.*;
+import static stackview.SimulationTrace.*;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.objectweb.asm.Type;
+
+/**
+ * Writes a binary trace of a simulator run for SimulationTrace to read back. Set it as the simulator's recorder and every phase the simulator
+ * performs is stored as the instruction, the state and the stack slots and locals that changed since the step before, with a full snapshot
+ * every checkpoint interval. Histories are not stored. The trace is only readable once the recorder is closed.
+ */
+public class TraceRecorder implements Closeable {
+
+	private static final EntryType[] TYPES = EntryType.values();
+
+	private final FileChannel channel;
+	private ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+	// Bytes already written to the channel, so the file offset of the next byte is flushed + buffer.position().
+	private long flushed;
+	private final int checkpointInterval;
+	private final Map<String, Integer> stringIndices = new HashMap<>();
+	private final List<String> strings = new ArrayList<>();
+	private long[] checkpoints = new long[16];
+	private long steps;
+	// The stack and locals as of the last step, in arrays owned by the recorder so each step is diffed against them without copying the simulator.
+	private final byte[] lastTypes;
+	private final EntryValue[] lastValues;
+	private final long[] lastNumbers;
+	private int lastSize;
+	private final EntryValue[] lastLocals;
+	private final long[] lastLocalNumbers;
+
+	public TraceRecorder(Path file, String owner, String name, String descriptor, Simulator sim) throws IOException {
+		this(file, owner, name, descriptor, sim, DEFAULT_CHECKPOINT_INTERVAL);
+	}
+
+	/**
+	 * Starts a trace whose first step is the simulator's current state.
+	 */
+	public TraceRecorder(Path file, String owner, String name, String descriptor, Simulator sim, int checkpointInterval) throws IOException {
+		if (checkpointInterval < 1) throw new IllegalArgumentException("Checkpoint interval must be at least 1.");
+		this.channel = FileChannel.open(file, CREATE, WRITE, TRUNCATE_EXISTING);
+		this.checkpointInterval = checkpointInterval;
+		lastTypes = new byte[sim.stack.max];
+		lastValues = new EntryValue[sim.stack.max];
+		lastNumbers = new long[sim.stack.max];
+		lastLocals = new EntryValue[sim.locals.count];
+		lastLocalNumbers = new long[sim.locals.count];
+		ensure(8);
+		buffer.putInt(MAGIC);
+		buffer.putInt(VERSION);
+		writeUtf(owner);
+		writeUtf(name);
+		writeUtf(descriptor);
+		writeVarint(checkpointInterval);
+		writeVarint(sim.insts.alters.size());
+		writeVarint(sim.stack.max);
+		writeVarint(sim.locals.count);
+		append(sim);
+	}
+
+	public long getSteps() {
+		return steps;
+	}
+
+	/**
+	 * Appends the simulator's current state as the next step. Called by the simulator after each phase.
+	 */
+	public void record(Simulator sim) {
+		append(sim);
+	}
+
+	private void append(Simulator sim) {
+		try {
+			if (steps % checkpointInterval == 0) {
+				int checkpoint = (int) (steps / checkpointInterval);
+				if (checkpoint == checkpoints.length) {
+					checkpoints = Arrays.copyOf(checkpoints, checkpoints.length * 2);
+				}
+				checkpoints[checkpoint] = flushed + buffer.position();
+				writeCheckpoint(sim);
+			} else {
+				writeStep(sim);
+			}
+			steps++;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private void writeCheckpoint(Simulator sim) throws IOException {
+		ensure(1);
+		buffer.put(CHECKPOINT);
+		writeState(sim);
+		writeStack(sim.stack, 0);
+		for (int i = 0; i < sim.locals.count; i++) {
+			sim.locals.copyTo(i, lastLocals, lastLocalNumbers);
+			writeEntry(lastLocals[i], lastLocalNumbers[i]);
+		}
+	}
+
+	private void writeStep(Simulator sim) throws IOException {
+		ensure(1);
+		buffer.put(STEP);
+		writeState(sim);
+		writeStack(sim.stack, sim.stack.commonPrefix(lastTypes, lastValues, lastNumbers, lastSize));
+		LocalVariables locals = sim.locals;
+		int changed = 0;
+		for (int i = 0; i < lastLocals.length; i++) {
+			if (locals.changed(i, lastLocals, lastLocalNumbers)) {
+				changed++;
+			}
+		}
+		writeVarint(changed);
+		for (int i = 0; changed > 0; i++) {
+			if (locals.changed(i, lastLocals, lastLocalNumbers)) {
+				locals.copyTo(i, lastLocals, lastLocalNumbers);
+				writeVarint(i);
+				writeEntry(lastLocals[i], lastLocalNumbers[i]);
+				changed--;
+			}
+		}
+	}
+
+	private void writeState(Simulator sim) throws IOException {
+		writeVarint(sim.instruction);
+		ensure(2);
+		buffer.put((byte) sim.state.ordinal());
+		if (sim.state == Simulator.State.ERRORED) {
+			buffer.put((byte) (sim.error == null ? -1 : sim.error.code().ordinal()));
+			writeString(sim.errorMessage);
+		}
+	}
+
+	// The slots above keep, for the second half of a long or double only the type as it shares the value of the first half.
+	private void writeStack(Stack stack, int keep) throws IOException {
+		stack.copyTo(keep, lastTypes, lastValues, lastNumbers);
+		if (stack.getSize() < lastSize) {
+			Arrays.fill(lastValues, stack.getSize(), lastSize, null);
+		}
+		lastSize = stack.getSize();
+		writeVarint(keep);
+		writeVarint(lastSize - keep);
+		for (int i = keep; i < lastSize; i++) {
+			EntryType type = TYPES[lastTypes[i]];
+			if (type == EntryType.LONG_2ND || type == EntryType.DOUBLE_2ND) {
+				ensure(1);
+				buffer.put((byte) (type.ordinal() + 1));
+			} else {
+				writeEntry(lastValues[i], lastNumbers[i]);
+			}
+		}
+	}
+
+	// A value that is EntryValue.number is written as the known value its number stands for.
+	private void writeEntry(EntryValue value, long number) throws IOException {
+		EntryType type = value.getType();
+		ensure(1);
+		buffer.put((byte) (type == null ? 0 : type.ordinal() + 1));
+		if (value.isNumber()) {
+			KnownValue.Kind kind = EntryValue.numberKind(type);
+			ensure(1);
+			buffer.put((byte) kind.ordinal());
+			writeNumber(kind, number);
+		} else if (type != null && type != EntryType.LONG_2ND && type != EntryType.DOUBLE_2ND) {
+			writeKnown(value.getKnown());
+		}
+	}
+
+	private void writeNumber(KnownValue.Kind kind, long bits) throws IOException {
+		switch (kind) {
+			case INT, LONG -> writeVarlong(bits);
+			case FLOAT -> {
+				ensure(4);
+				buffer.putFloat((float) Double.longBitsToDouble(bits));
+			}
+			default -> {
+				ensure(8);
+				buffer.putDouble(Double.longBitsToDouble(bits));
+			}
+		}
+	}
+
+	private void writeKnown(KnownValue known) throws IOException {
+		ensure(1);
+		buffer.put((byte) known.getKind().ordinal());
+		switch (known.getKind()) {
+			case INT, LONG, FLOAT, DOUBLE -> writeNumber(known.getKind(), KnownValue.bits(known));
+			case REFERENCE -> {
+				writeString(known.getType());
+				ensure(1);
+				buffer.put((byte) (known.isNonNull() ? 1 : 0));
+				KnownValue[] lengths = known.getLengths();
+				writeVarint(lengths == null ? 0 : lengths.length + 1);
+				if (lengths != null) {
+					for (KnownValue length : lengths) {
+						writeKnown(length);
+					}
+				}
+			}
+			case CONSTANT -> {
+				Object constant = known.getConstant();
+				ensure(1);
+				if (constant instanceof String s) {
+					buffer.put(CONSTANT_STRING);
+					writeString(s);
+				} else if (constant instanceof Type t) {
+					buffer.put(CONSTANT_TYPE);
+					writeString(t.getDescriptor());
+				} else {
+					// Handles and dynamic constants are only kept as text.
+					buffer.put(CONSTANT_TEXT);
+					writeString(String.valueOf(constant));
+				}
+			}
+			case SYMBOLIC -> writeString(known.toString());
+			case UNKNOWN, NULL -> {}
+		}
+	}
+
+	private void writeString(String s) throws IOException {
+		if (s == null) {
+			writeVarint(0);
+			return;
+		}
+		Integer index = stringIndices.get(s);
+		if (index == null) {
+			index = strings.size();
+			strings.add(s);
+			stringIndices.put(s, index);
+		}
+		writeVarint(index + 1);
+	}
+
+	private void writeUtf(String s) throws IOException {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		writeVarint(bytes.length);
+		ensure(bytes.length);
+		buffer.put(bytes);
+	}
+
+	private void writeVarint(int value) throws IOException {
+		ensure(5);
+		while ((value & ~0x7F) != 0) {
+			buffer.put((byte) (value & 0x7F | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+	// Zigzag encoded so small negative values stay short.
+	private void writeVarlong(long value) throws IOException {
+		ensure(10);
+		value = value << 1 ^ value >> 63;
+		while ((value & ~0x7FL) != 0) {
+			buffer.put((byte) (value & 0x7F | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+	private void ensure(int bytes) throws IOException {
+		if (buffer.remaining() < bytes) {
+			flush();
+			if (buffer.capacity() < bytes) {
+				buffer = ByteBuffer.allocate(bytes);
+			}
+		}
+	}
+
+	private void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			flushed += channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * Writes the string table and checkpoint index that the reader needs and closes the file.
+	 */
+	public void close() throws IOException {
+		try {
+			long footer = flushed + buffer.position();
+			writeVarint(strings.size());
+			for (String s : strings) {
+				writeUtf(s);
+			}
+			int count = (int) ((steps + checkpointInterval - 1) / checkpointInterval);
+			writeVarint(count);
+			ensure(count * 8);
+			for (int i = 0; i < count; i++) {
+				buffer.putLong(checkpoints[i]);
+			}
+			ensure(20);
+			buffer.putLong(steps);
+			buffer.putLong(footer);
+			buffer.putInt(END_MAGIC);
+			flush();
+		} finally {
+			channel.close();
+		}
+	}
+
+}
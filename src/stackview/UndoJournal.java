@@ -0,0 +1,202 @@
+package stackview;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import stackview.Simulator.Popped;
+import stackview.Simulator.State;
+
+/**
+ * Undo history for a Simulator that stores only what changed between saved states, with a full copy every CHECKPOINT_INTERVAL states. The
+ * current state is kept in arrays owned by the journal, so recording, undoing and redoing a step costs only the slots it changed.
+ */
+public class UndoJournal {
+
+	public static final int CHECKPOINT_INTERVAL = 64;
+
+	private final List<Delta> deltas = new ArrayList<>();
+	private final List<Simulator> checkpoints = new ArrayList<>();
+	private int index;
+	// The state at index, as Stack.copyTo and LocalVariables.copyTo leave it.
+	private int lastInstruction;
+	private State lastState;
+	private SimulationError lastError;
+	private Popped lastPopped;
+	private final byte[] lastTypes;
+	private final EntryValue[] lastValues;
+	private final long[] lastNumbers;
+	private int lastSize;
+	private final EntryValue[] lastLocals;
+	private final long[] lastLocalNumbers;
+
+	public UndoJournal(Simulator initial) {
+		lastTypes = new byte[initial.stack.max];
+		lastValues = new EntryValue[initial.stack.max];
+		lastNumbers = new long[initial.stack.max];
+		lastLocals = new EntryValue[initial.locals.count];
+		lastLocalNumbers = new long[initial.locals.count];
+		checkpoints.add(new Simulator(initial));
+		sync(initial);
+	}
+
+	/**
+	 * Records the simulator's current state as the next state, dropping anything that could have been redone.
+	 */
+	public void record(Simulator sim) {
+		while (deltas.size() > index) {
+			deltas.removeLast();
+		}
+		while (checkpoints.size() > index / CHECKPOINT_INTERVAL + 1) {
+			checkpoints.removeLast();
+		}
+		int keep = sim.stack.commonPrefix(lastTypes, lastValues, lastNumbers, lastSize);
+		byte[] stackTypesBefore = Arrays.copyOfRange(lastTypes, keep, lastSize);
+		EntryValue[] stackValuesBefore = Arrays.copyOfRange(lastValues, keep, lastSize);
+		long[] stackNumbersBefore = Arrays.copyOfRange(lastNumbers, keep, lastSize);
+		syncStack(sim.stack, keep);
+
+		int changed = 0;
+		for (int i = 0; i < lastLocals.length; i++) {
+			if (sim.locals.changed(i, lastLocals, lastLocalNumbers)) {
+				changed++;
+			}
+		}
+		int[] slots = new int[changed];
+		EntryValue[] localsBefore = new EntryValue[changed];
+		long[] localNumbersBefore = new long[changed];
+		EntryValue[] localsAfter = new EntryValue[changed];
+		long[] localNumbersAfter = new long[changed];
+		for (int i = 0, slot = 0; slot < changed; i++) {
+			if (sim.locals.changed(i, lastLocals, lastLocalNumbers)) {
+				slots[slot] = i;
+				localsBefore[slot] = lastLocals[i];
+				localNumbersBefore[slot] = lastLocalNumbers[i];
+				sim.locals.copyTo(i, lastLocals, lastLocalNumbers);
+				localsAfter[slot] = lastLocals[i];
+				localNumbersAfter[slot] = lastLocalNumbers[i];
+				slot++;
+			}
+		}
+
+		Popped popped = sim.sharePopped();
+		deltas.add(new Delta(lastInstruction, sim.instruction, lastState, sim.state, lastError, sim.error, //
+				keep, stackTypesBefore, stackValuesBefore, stackNumbersBefore, //
+				Arrays.copyOfRange(lastTypes, keep, lastSize), Arrays.copyOfRange(lastValues, keep, lastSize), Arrays.copyOfRange(lastNumbers, keep, lastSize), //
+				slots, localsBefore, localNumbersBefore, localsAfter, localNumbersAfter, //
+				lastPopped, popped));
+		lastInstruction = sim.instruction;
+		lastState = sim.state;
+		lastError = sim.error;
+		lastPopped = popped;
+		index++;
+		if (index % CHECKPOINT_INTERVAL == 0) {
+			checkpoints.add(new Simulator(sim));
+		}
+	}
+
+	public boolean canUndo() {
+		return index > 0;
+	}
+
+	public boolean canRedo() {
+		return index < deltas.size();
+	}
+
+	public int getIndex() {
+		return index;
+	}
+
+	public int size() {
+		return deltas.size() + 1;
+	}
+
+	public void undo(Simulator sim) {
+		if (canUndo()) {
+			index--;
+			Delta delta = deltas.get(index);
+			delta.revert(sim);
+			syncDelta(sim, delta);
+		}
+	}
+
+	public void redo(Simulator sim) {
+		if (canRedo()) {
+			Delta delta = deltas.get(index);
+			delta.apply(sim);
+			index++;
+			syncDelta(sim, delta);
+		}
+	}
+
+	/**
+	 * Moves to any recorded state by starting from the nearest checkpoint at or before it.
+	 */
+	public void seek(Simulator sim, int target) {
+		if (target < 0 || target >= size()) throw new IndexOutOfBoundsException(target);
+		int checkpoint = target / CHECKPOINT_INTERVAL;
+		sim.become(checkpoints.get(checkpoint));
+		for (int i = checkpoint * CHECKPOINT_INTERVAL; i < target; i++) {
+			deltas.get(i).apply(sim);
+		}
+		index = target;
+		sync(sim);
+	}
+
+	// Copies the whole state of the simulator into the journal's arrays.
+	private void sync(Simulator sim) {
+		syncStack(sim.stack, 0);
+		for (int i = 0; i < lastLocals.length; i++) {
+			sim.locals.copyTo(i, lastLocals, lastLocalNumbers);
+		}
+		syncState(sim);
+	}
+
+	// Copies only the slots a delta just replayed, everything else already matches.
+	private void syncDelta(Simulator sim, Delta delta) {
+		syncStack(sim.stack, delta.stackKeep());
+		for (int slot : delta.localSlots()) {
+			sim.locals.copyTo(slot, lastLocals, lastLocalNumbers);
+		}
+		syncState(sim);
+	}
+
+	private void syncStack(Stack stack, int keep) {
+		stack.copyTo(keep, lastTypes, lastValues, lastNumbers);
+		if (stack.getSize() < lastSize) {
+			Arrays.fill(lastValues, stack.getSize(), lastSize, null);
+		}
+		lastSize = stack.getSize();
+	}
+
+	private void syncState(Simulator sim) {
+		lastInstruction = sim.instruction;
+		lastState = sim.state;
+		lastError = sim.error;
+		lastPopped = sim.sharePopped();
+	}
+
+	// Stack tails and locals are kept as Stack.copyTo and LocalVariables.copyTo leave them, a known number as EntryValue.number and its number.
+	static record Delta(int instructionBefore, int instructionAfter, State stateBefore, State stateAfter, SimulationError errorBefore, SimulationError errorAfter, //
+			int stackKeep, byte[] stackTypesBefore, EntryValue[] stackValuesBefore, long[] stackNumbersBefore, //
+			byte[] stackTypesAfter, EntryValue[] stackValuesAfter, long[] stackNumbersAfter, //
+			int[] localSlots, EntryValue[] localsBefore, long[] localNumbersBefore, EntryValue[] localsAfter, long[] localNumbersAfter, //
+			Popped poppedBefore, Popped poppedAfter) {
+
+		void apply(Simulator sim) {
+			sim.stack.restore(stackKeep, stackTypesAfter, stackValuesAfter, stackNumbersAfter);
+			for (int i = 0; i < localSlots.length; i++) {
+				sim.locals.replace(localSlots[i], localsAfter[i], localNumbersAfter[i]);
+			}
+			sim.restore(instructionAfter, stateAfter, errorAfter, poppedAfter);
+		}
+
+		void revert(Simulator sim) {
+			sim.stack.restore(stackKeep, stackTypesBefore, stackValuesBefore, stackNumbersBefore);
+			for (int i = 0; i < localSlots.length; i++) {
+				sim.locals.replace(localSlots[i], localsBefore[i], localNumbersBefore[i]);
+			}
+			sim.restore(instructionBefore, stateBefore, errorBefore, poppedBefore);
+		}
+	}
+}
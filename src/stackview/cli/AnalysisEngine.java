@@ -0,0 +1,128 @@
+package stackview.cli;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import stackview.Simulator;
+import stackview.cli.MethodAnalysis.Outcome;
+
+/**
+ * Parses classes and simulates their methods on a work-stealing pool. Results are handed to the sink one class at a time in the order the classes were listed, whatever order they finish in.
+ */
+public class AnalysisEngine implements AutoCloseable {
+
+	public static record ClassResult(Path path, String name, List<MethodAnalysis> methods, String error) {}
+
+	public static interface MethodAnalyzer {
+
+		MethodAnalysis analyze(String owner, MethodNode method);
+
+	}
+
+	final ForkJoinPool pool;
+	final MethodAnalyzer analyzer;
+	// How many classes may be in flight ahead of the one being reported, so a huge classpath is never held in memory at once.
+	final int window;
+
+	public AnalysisEngine(int parallelism, MethodAnalyzer analyzer) {
+		if (parallelism < 1) throw new IllegalArgumentException("Parallelism must be at least 1.");
+		this.pool = new ForkJoinPool(parallelism);
+		this.analyzer = analyzer;
+		this.window = parallelism * 4;
+	}
+
+	public int getParallelism() {
+		return pool.getParallelism();
+	}
+
+	public void analyze(ClassSource source, Consumer<ClassResult> sink) throws IOException {
+		Iterator<Path> paths = source.classes().iterator();
+		ArrayDeque<ForkJoinTask<ClassResult>> pending = new ArrayDeque<>();
+		while (paths.hasNext() || !pending.isEmpty()) {
+			while (paths.hasNext() && pending.size() < window) {
+				pending.add(pool.submit(new ClassTask(source, paths.next())));
+			}
+			sink.accept(pending.poll().join());
+		}
+	}
+
+	public void close() {
+		pool.shutdown();
+	}
+
+	class ClassTask extends RecursiveTask<ClassResult> {
+
+		final ClassSource source;
+		final Path path;
+
+		ClassTask(ClassSource source, Path path) {
+			this.source = source;
+			this.path = path;
+		}
+
+		protected ClassResult compute() {
+			ClassNode cn = new ClassNode();
+			try {
+				new ClassReader(source.read(path)).accept(cn, 0);
+			} catch (Throwable e) {
+				return new ClassResult(path, null, List.of(), e.toString());
+			}
+			try {
+				return analyze(cn);
+			} catch (Throwable e) {
+				// Even an Error such as running out of memory only loses this class, the run goes on with the next one.
+				return new ClassResult(path, cn.name, List.of(), e.toString());
+			}
+		}
+
+		private ClassResult analyze(ClassNode cn) {
+			List<MethodTask> tasks = new ArrayList<>();
+			for (MethodNode mn : cn.methods) {
+				if (MethodAnalysis.hasCode(mn)) {
+					tasks.add(new MethodTask(cn.name, mn));
+				}
+			}
+			invokeAll(tasks);
+			List<MethodAnalysis> methods = new ArrayList<>(tasks.size());
+			for (MethodTask task : tasks) {
+				methods.add(task.join());
+			}
+			return new ClassResult(path, cn.name, methods, null);
+		}
+
+	}
+
+	class MethodTask extends RecursiveTask<MethodAnalysis> {
+
+		final String owner;
+		final MethodNode method;
+
+		MethodTask(String owner, MethodNode method) {
+			this.owner = owner;
+			this.method = method;
+		}
+
+		protected MethodAnalysis compute() {
+			try {
+				return analyzer.analyze(owner, method);
+			} catch (Throwable e) {
+				// A StackOverflowError from a deep method or an OutOfMemoryError from a huge one is reported as that method failing.
+				return new MethodAnalysis(owner, method.name, method.desc, Outcome.ERRORED, Simulator.State.INIT, 0, 0, 0, "", 0, "", e.toString());
+			}
+		}
+
+	}
+
+}
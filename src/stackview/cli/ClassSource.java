@@ -0,0 +1,72 @@
+package stackview.cli;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * The .class files of a jar, a directory, a single class file or a jrt:/ module.
+ */
+public class ClassSource implements Closeable {
+
+	private final String input;
+	private final Path root;
+	private final FileSystem opened;
+
+	private ClassSource(String input, Path root, FileSystem opened) {
+		this.input = input;
+		this.root = root;
+		this.opened = opened;
+	}
+
+	public static ClassSource open(String input) throws IOException {
+		if (input.startsWith("jrt:")) {
+			FileSystem jrt = FileSystems.getFileSystem(URI.create("jrt:/"));
+			String module = input.substring(4);
+			while (module.startsWith("/")) {
+				module = module.substring(1);
+			}
+			return new ClassSource(input, module.isEmpty() ? jrt.getPath("/modules") : jrt.getPath("/modules", module), null);
+		}
+		Path path = Path.of(input);
+		if (Files.isDirectory(path) || input.endsWith(".class")) {
+			return new ClassSource(input, path, null);
+		}
+		FileSystem zip = FileSystems.newFileSystem(path);
+		return new ClassSource(input, zip.getPath("/"), zip);
+	}
+
+	public String getInput() {
+		return input;
+	}
+
+	/**
+	 * All class files in the source, sorted so runs over the same input report in the same order.
+	 */
+	public List<Path> classes() throws IOException {
+		if (!Files.exists(root)) {
+			throw new IOException("No such class source " + input);
+		}
+		try (Stream<Path> files = Files.walk(root)) {
+			return files.filter(p -> p.toString().endsWith(".class") && !p.getFileName().toString().equals("module-info.class")) //
+					.filter(Files::isRegularFile).sorted().toList();
+		}
+	}
+
+	public byte[] read(Path path) throws IOException {
+		return Files.readAllBytes(path);
+	}
+
+	public void close() throws IOException {
+		if (opened != null) {
+			opened.close();
+		}
+	}
+
+}
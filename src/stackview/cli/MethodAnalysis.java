@@ -0,0 +1,246 @@
+package stackview.cli;
+
+import static org.objectweb.asm.Opcodes.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+
+import org.objectweb.asm.Label;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TryCatchBlockNode;
+
+import stackview.DataflowAnalysis;
+import stackview.EntryType;
+import stackview.EntryValue;
+import stackview.InstructionSpec;
+import stackview.PathExplorer;
+import stackview.PathExplorer.Terminal;
+import stackview.Simulator;
+import stackview.Simulator.ErrorSink;
+import stackview.Simulator.State;
+import stackview.TraceRecorder;
+
+/**
+ * The result of simulating one method from its entry until it finishes, errors, reaches a branch that depends on unknown values or runs out of steps.
+ * Paths and terminals are only filled in by explore, every other analysis follows a single path and leaves them at 0 and empty.
+ */
+public record MethodAnalysis(String owner, String name, String desc, Outcome outcome, State state, int instruction, int steps, int maxStackDepth, String finalStack, int paths,
+		String terminals, String error) {
+
+	public static enum Outcome {
+
+		FINISHED, THROWN, ERRORED, UNRESOLVED_BRANCH, STEP_LIMIT;
+
+	}
+
+	public static boolean hasCode(MethodNode mn) {
+		return (mn.access & (ACC_ABSTRACT | ACC_NATIVE)) == 0 && mn.instructions.size() > 0;
+	}
+
+	public static MethodAnalysis analyze(String owner, MethodNode mn, int maxSteps, boolean keepHistory) {
+		return analyze(owner, mn, maxSteps, keepHistory, null);
+	}
+
+	/**
+	 * Simulates the method and, if traceDir is not null, records every step to a trace file named after the method in that directory.
+	 */
+	public static MethodAnalysis analyze(String owner, MethodNode mn, int maxSteps, boolean keepHistory, Path traceDir) {
+		InstructionSpec spec;
+		try {
+			spec = parse(mn);
+		} catch (Exception e) {
+			return parseFailure(owner, mn, e);
+		}
+		Simulator sim = new Simulator(spec);
+		// The error ends up in the result, there is no need to log it as well.
+		sim.errorSink = ErrorSink.IGNORE;
+		if (traceDir == null) {
+			return analyze(owner, mn.name, mn.desc, sim, maxSteps, keepHistory);
+		}
+		try (TraceRecorder recorder = new TraceRecorder(traceDir.resolve(traceFileName(owner, mn.name, mn.desc)), owner, mn.name, mn.desc, sim)) {
+			sim.recorder = recorder;
+			return analyze(owner, mn.name, mn.desc, sim, maxSteps, keepHistory);
+		} catch (IOException e) {
+			return new MethodAnalysis(owner, mn.name, mn.desc, Outcome.ERRORED, sim.state, sim.instruction, 0, 0, "", 0, "", "Failed to write trace: " + e);
+		}
+	}
+
+	public static String traceFileName(String owner, String name, String desc) {
+		String file = (owner + "." + name + desc).replaceAll("[^A-Za-z0-9._$-]", "_");
+		if (file.length() > 200) {
+			// Keep clear of file name limits, the hash tells apart overloads that share a prefix.
+			file = file.substring(0, 180) + "_" + Integer.toHexString((owner + "." + name + desc).hashCode());
+		}
+		return file + ".svtrace";
+	}
+
+	/**
+	 * Runs the merging dataflow analysis over every reachable instruction. The instruction and error are those of the first instruction that
+	 * failed, the stack is the entry stack of the last instruction and the steps count every instruction visit.
+	 */
+	public static MethodAnalysis dataflow(String owner, MethodNode mn) {
+		InstructionSpec spec;
+		try {
+			spec = parse(mn);
+		} catch (Exception e) {
+			return parseFailure(owner, mn, e);
+		}
+		DataflowAnalysis dataflow;
+		try {
+			dataflow = new DataflowAnalysis(spec).run();
+		} catch (Exception e) {
+			return new MethodAnalysis(owner, mn.name, mn.desc, Outcome.ERRORED, State.ERRORED, 0, 0, 0, "", 0, "", e.toString());
+		}
+		int maxStackDepth = 0;
+		int failed = -1;
+		Simulator last = null;
+		for (int i = 0; i < spec.alters.size(); i++) {
+			Simulator entry = dataflow.getEntryState(i);
+			if (entry != null) {
+				maxStackDepth = Math.max(maxStackDepth, entry.stack.getSize());
+				last = entry;
+			}
+			if (failed < 0 && dataflow.getError(i) != null) {
+				failed = i;
+			}
+		}
+		if (failed >= 0) {
+			return new MethodAnalysis(owner, mn.name, mn.desc, Outcome.ERRORED, State.ERRORED, failed, dataflow.getSteps(), maxStackDepth, //
+					last == null ? "" : describeStack(last), 0, "", dataflow.getError(failed));
+		}
+		return new MethodAnalysis(owner, mn.name, mn.desc, Outcome.FINISHED, State.FINISHED, spec.alters.size(), dataflow.getSteps(), maxStackDepth, //
+				last == null ? "" : describeStack(last), 0, "", null);
+	}
+
+	/**
+	 * Follows every path through the method within the budget. The terminals list each distinct way the method ended, and the state, instruction
+	 * and error are those of the first path that ran into an error, a null state and instruction -1 if none did.
+	 */
+	public static MethodAnalysis explore(String owner, MethodNode mn, int maxPaths, int maxSteps, long maxMillis, boolean keepHistory) {
+		InstructionSpec spec;
+		try {
+			spec = parse(mn);
+		} catch (Exception e) {
+			return parseFailure(owner, mn, e);
+		}
+		PathExplorer explorer = new PathExplorer(spec);
+		explorer.maxPaths = maxPaths;
+		explorer.maxSteps = maxSteps;
+		explorer.maxMillis = maxMillis;
+		explorer.keepHistory = keepHistory;
+		try {
+			explorer.run();
+		} catch (Exception e) {
+			return new MethodAnalysis(owner, mn.name, mn.desc, Outcome.ERRORED, State.ERRORED, 0, (int) explorer.getSteps(), explorer.getMaxStackDepth(), "", explorer.getPaths(), "",
+					e.toString());
+		}
+		StringBuilder ends = new StringBuilder();
+		Terminal failed = null;
+		for (Terminal terminal : explorer.getTerminals()) {
+			if (terminal.kind() == PathExplorer.Kind.ERROR) {
+				if (failed == null) {
+					failed = terminal;
+				}
+				continue;
+			}
+			if (ends.length() > 0) {
+				ends.append("; ");
+			}
+			ends.append(terminal);
+		}
+		String error = failed == null ? null : failed.error();
+		Outcome outcome = explorer.getStopReason() != null ? Outcome.STEP_LIMIT : error != null ? Outcome.ERRORED : Outcome.FINISHED;
+		return new MethodAnalysis(owner, mn.name, mn.desc, outcome, failed == null ? null : State.ERRORED, failed == null ? -1 : failed.instruction(), (int) explorer.getSteps(), //
+				explorer.getMaxStackDepth(), "", explorer.getPaths(), ends.toString(), explorer.getStopReason() != null ? explorer.getStopReason() : error);
+	}
+
+	private static InstructionSpec parse(MethodNode mn) {
+		InstructionSpec spec = new InstructionSpec(mn.name, mn.desc, (mn.access & ACC_STATIC) != 0);
+		mn.accept(spec);
+		return spec;
+	}
+
+	private static MethodAnalysis parseFailure(String owner, MethodNode mn, Exception e) {
+		return new MethodAnalysis(owner, mn.name, mn.desc, Outcome.ERRORED, State.INIT, 0, 0, 0, "", 0, "", "Failed to parse: " + e);
+	}
+
+	public static MethodAnalysis analyze(String owner, String name, String desc, Simulator sim, int maxSteps, boolean keepHistory) {
+		int steps = 0;
+		int maxStackDepth = 0;
+		Outcome outcome = null;
+		try {
+			sim.trackHistory = keepHistory;
+			sim.initLocals();
+			while (outcome == null) {
+				if (sim.state.done) {
+					outcome = sim.state == State.FINISHED ? Outcome.FINISHED : Outcome.ERRORED;
+					break;
+				}
+				if (steps >= maxSteps) {
+					outcome = Outcome.STEP_LIMIT;
+					break;
+				}
+				switch (sim.state) {
+					case POP -> sim.performPops();
+					case PUSH -> {
+						sim.performPushes();
+						steps++;
+						maxStackDepth = Math.max(maxStackDepth, sim.stack.getSize());
+					}
+					case JUMP -> {
+						boolean thrown = sim.getInstruction().node.getOpcode() == ATHROW;
+						Optional<Label> target = thrown ? thrownTarget(sim) : sim.getExpectedJumpTarget();
+						if (target == null) {
+							outcome = Outcome.UNRESOLVED_BRANCH;
+						} else if (thrown && target.isEmpty()) {
+							outcome = Outcome.THROWN;
+						} else {
+							sim.performJump(target.orElse(null));
+						}
+					}
+					default -> throw new IllegalStateException("Unexpected state " + sim.state);
+				}
+			}
+		} catch (Exception e) {
+			return new MethodAnalysis(owner, name, desc, Outcome.ERRORED, sim.state, sim.instruction, steps, maxStackDepth, describeStack(sim), 0, "", e.toString());
+		}
+		return new MethodAnalysis(owner, name, desc, outcome, sim.state, sim.instruction, steps, maxStackDepth, describeStack(sim), 0, "", sim.errorMessage);
+	}
+
+	/**
+	 * The handler that catches the exception thrown at the current instruction, empty if it leaves the method or null if that depends on the
+	 * class of the exception.
+	 */
+	private static Optional<Label> thrownTarget(Simulator sim) {
+		List<TryCatchBlockNode> handlers = sim.getHandlers();
+		if (handlers.isEmpty()) {
+			return Optional.empty();
+		}
+		// Handlers are tried innermost first in exception table order. Without the class hierarchy no handler is known not to match, so the
+		// innermost one either surely catches it or leaves the target undecided.
+		TryCatchBlockNode first = handlers.get(0);
+		String thrown = sim.stack.entries.get(sim.stack.getSize() - 1).getKnown().getType();
+		return Simulator.catches(first, thrown) ? Optional.of(first.handler.getLabel()) : null;
+	}
+
+	private static String describeStack(Simulator sim) {
+		StringBuilder sb = new StringBuilder("[");
+		for (EntryValue e : sim.stack.entries) {
+			if (e.getType() == EntryType.LONG_2ND || e.getType() == EntryType.DOUBLE_2ND) {
+				continue;
+			}
+			if (sb.length() > 1) {
+				sb.append(", ");
+			}
+			sb.append(e.getType());
+			String known = e.getKnownValue();
+			if (known != null) {
+				sb.append('=').append(known);
+			}
+		}
+		return sb.append(']').toString();
+	}
+
+}
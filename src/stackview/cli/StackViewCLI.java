@@ -0,0 +1,127 @@
+package stackview.cli;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import stackview.cli.AnalysisEngine.ClassResult;
+import stackview.cli.AnalysisEngine.MethodAnalyzer;
+import stackview.cli.MethodAnalysis.Outcome;
+
+/**
+ * Simulates every method of a set of jars, class directories or jrt:/ modules without opening the GUI and prints one tab separated line per method.
+ */
+public class StackViewCLI {
+
+	public static void main(String[] args) throws Exception {
+		int maxSteps = 100000;
+		boolean keepHistory = false;
+		boolean dataflow = false;
+		boolean explore = false;
+		int maxPaths = 1000;
+		long maxMillis = 1000;
+		Path traceDir = null;
+		int threads = Runtime.getRuntime().availableProcessors();
+		List<String> inputs = new ArrayList<>();
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+				case "--max-steps" -> maxSteps = Integer.parseInt(args[++i]);
+				case "--history" -> keepHistory = true;
+				case "--threads" -> threads = Integer.parseInt(args[++i]);
+				case "--dataflow" -> dataflow = true;
+				case "--explore" -> explore = true;
+				case "--max-paths" -> maxPaths = Integer.parseInt(args[++i]);
+				case "--max-millis" -> maxMillis = Long.parseLong(args[++i]);
+				case "--trace" -> traceDir = Path.of(args[++i]);
+				case "--help", "-h" -> {
+					usage();
+					return;
+				}
+				default -> inputs.add(args[i]);
+			}
+		}
+		if (inputs.isEmpty()) {
+			usage();
+			System.exit(1);
+		}
+		int steps = maxSteps;
+		boolean history = keepHistory;
+		int paths = maxPaths;
+		long millis = maxMillis;
+		Path traces = traceDir;
+		if (traces != null) {
+			Files.createDirectories(traces);
+		}
+		MethodAnalyzer analyzer;
+		if (dataflow) {
+			analyzer = MethodAnalysis::dataflow;
+		} else if (explore) {
+			analyzer = (owner, method) -> MethodAnalysis.explore(owner, method, paths, steps, millis, history);
+		} else {
+			analyzer = (owner, method) -> MethodAnalysis.analyze(owner, method, steps, history, traces);
+		}
+		try (AnalysisEngine engine = new AnalysisEngine(threads, analyzer)) {
+			new StackViewCLI(engine, System.out).run(inputs);
+		}
+	}
+
+	private static void usage() {
+		System.err.println("Usage: StackViewCLI [--max-steps n] [--history] [--threads n] [--trace directory] [--dataflow | --explore [--max-paths n] [--max-millis n]] <jar | directory | class file | jrt:/module>...");
+	}
+
+	final AnalysisEngine engine;
+	final PrintStream out;
+	final Map<Outcome, Integer> totals = new EnumMap<>(Outcome.class);
+	int failedClasses;
+
+	public StackViewCLI(AnalysisEngine engine, PrintStream out) {
+		this.engine = engine;
+		this.out = out;
+	}
+
+	public void run(List<String> inputs) {
+		out.println("class\tmethod\toutcome\tstate\tinstruction\tsteps\tmaxStack\tstack\tpaths\tterminals\terror");
+		for (String input : inputs) {
+			try (ClassSource source = ClassSource.open(input)) {
+				engine.analyze(source, this::report);
+			} catch (IOException e) {
+				System.err.println("Failed to read " + input + ": " + e);
+				failedClasses++;
+			}
+		}
+		StringBuilder sb = new StringBuilder("Done:");
+		for (Outcome o : Outcome.values()) {
+			sb.append(' ').append(o).append('=').append(totals.getOrDefault(o, 0));
+		}
+		sb.append(" unreadable=").append(failedClasses);
+		System.err.println(sb);
+	}
+
+	void report(ClassResult result) {
+		if (result.error() != null) {
+			System.err.println("Failed to read " + result.path() + ": " + result.error());
+			failedClasses++;
+			return;
+		}
+		for (MethodAnalysis method : result.methods()) {
+			report(method);
+		}
+	}
+
+	void report(MethodAnalysis result) {
+		totals.merge(result.outcome(), 1, Integer::sum);
+		out.println(result.owner() + "\t" + result.name() + result.desc() + "\t" + result.outcome() + "\t" + (result.state() == null ? "" : result.state()) + "\t" //
+				+ (result.instruction() < 0 ? "" : result.instruction()) + "\t" + result.steps() + "\t" + result.maxStackDepth() + "\t" + clean(result.finalStack()) + "\t" //
+				+ result.paths() + "\t" + clean(result.terminals()) + "\t" + clean(result.error()));
+	}
+
+	private static String clean(String s) {
+		return s == null ? "" : s.replace('\t', ' ').replace('\n', ' ');
+	}
+
+}
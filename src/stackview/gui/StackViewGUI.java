@@ -4,9 +4,15 @@ import static org.objectweb.asm.Opcodes.*;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
 
 import java.awt.BasicStroke;
 import java.awt.BorderLayout;
@@ -27,6 +33,7 @@ import java.awt.event.MouseWheelEvent;
 import java.awt.event.MouseWheelListener;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.lang.reflect.InvocationTargetException;
 
@@ -38,7 +45,13 @@ import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.JProgressBar;
+import javax.swing.JSlider;
+import javax.swing.JSpinner;
+import javax.swing.SpinnerNumberModel;
 import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
+import javax.swing.filechooser.FileNameExtensionFilter;
 
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.Label;
@@ -51,24 +64,97 @@ import org.objectweb.asm.util.TraceClassVisitor;
 
 import stackview.EntryHistory;
 import stackview.InstructionSpec;
+import stackview.SimulationTrace;
 import stackview.Simulator;
 import stackview.Simulator.State;
 import stackview.StackAlter;
+import stackview.UndoJournal;
 
 public class StackViewGUI {
 
+	// Limits for one press of Fast Forward, which can also be cancelled while it runs.
+	static long fastForwardMaxSteps = 10_000_000;
+	static long fastForwardMaxMillis = 30_000;
+	// How many times a second the view is redrawn while fast forwarding.
+	static int fastForwardFps = 30;
+	// Print the whole class through TraceClassVisitor when it is opened.
+	static boolean traceClass;
+
 	public static void main(String[] args) throws Exception {
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+				case "--max-steps" -> fastForwardMaxSteps = Long.parseLong(args[++i]);
+				case "--max-millis" -> fastForwardMaxMillis = Long.parseLong(args[++i]);
+				case "--fps" -> fastForwardFps = Integer.parseInt(args[++i]);
+				case "--trace" -> traceClass = true;
+				default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+			}
+		}
 		new StackViewGUI(new File("."));
 	}
 
-	static record ClassMethod(MethodNode method, InstructionSpec spec) {}
+	/**
+	 * A method and the task that builds its spec. The task is run by the prefetch thread or by whoever needs the spec first, whichever is earlier.
+	 */
+	static record ClassMethod(MethodNode method, FutureTask<InstructionSpec> specTask) {
+
+		ClassMethod(MethodNode method) {
+			this(method, new FutureTask<>(() -> {
+				InstructionSpec spec = new InstructionSpec(method.name, method.desc, (method.access & ACC_STATIC) != 0);
+				method.accept(spec);
+				if (!spec.alters.isEmpty()) {
+					// Builds the text table as well.
+					spec.toString(0);
+				}
+				return spec;
+			}));
+		}
+
+		InstructionSpec spec() throws InterruptedException, ExecutionException {
+			specTask.run();
+			return specTask.get();
+		}
+
+	}
+
+	static record Snapshot(Simulator sim, long steps, int percent) {}
+
+	static void step(Simulator sim, boolean keepHistory) {
+		if (sim.state == State.JUMP) {
+			if (sim.getExpectedJumpTarget() != null) {
+				jump(sim, sim.getExpectedJumpTarget().orElse(null), keepHistory);
+			}
+		}
+		if (sim.state == State.POP) {
+			sim.performPops();
+		}
+		if (sim.state == State.PUSH) {
+			sim.performPushes();
+		}
+	}
+
+	static void jump(Simulator sim, Label l, boolean keepHistory) {
+		sim.performJump(l);
+		if (!sim.state.done && sim.getInstruction().node instanceof LabelNode) {
+			jump(sim, null, keepHistory);
+		} else if (!keepHistory) {
+			sim.purgeHistory();
+		}
+	}
 
 	List<ClassMethod> methods = new ArrayList<>();
+	ExecutorService prefetch = Executors.newSingleThreadExecutor(r -> {
+		Thread t = new Thread(r, "Method prefetch");
+		t.setDaemon(true);
+		t.setPriority(Thread.MIN_PRIORITY);
+		return t;
+	});
 
 	JFrame frame = new JFrame("StackViewGUI");
 	JComboBox<String> options = new JComboBox<>();
 	JPanel center = new JPanel();
 	File open;
+	String className;
 
 	public StackViewGUI(File f) throws InvocationTargetException, InterruptedException {
 
@@ -82,16 +168,20 @@ public class StackViewGUI {
 		try {
 			ClassReader cr = new ClassReader(new FileInputStream(open));
 			ClassNode cn = new ClassNode();
-			cr.accept(cn, ClassReader.EXPAND_FRAMES);
+			cr.accept(cn, 0);
+			className = cn.name;
 
-			TraceClassVisitor trace = new TraceClassVisitor(/*new ClassWriter(0), new ASMifier(), */new PrintWriter(System.out));
-			cn.accept(trace);
+			if (traceClass) {
+				TraceClassVisitor trace = new TraceClassVisitor(/*new ClassWriter(0), new ASMifier(), */new PrintWriter(System.out));
+				cn.accept(trace);
+			}
 
 			for (MethodNode mn : cn.methods) {
-				InstructionSpec spec = new InstructionSpec(mn.desc, (mn.access & ACC_STATIC) != 0);
-				mn.accept(spec);
-
-				methods.add(new ClassMethod(mn, spec));
+				methods.add(new ClassMethod(mn));
+			}
+			// Specs are built in method order in the background, selecting a method builds its own straight away if it has not been reached.
+			for (ClassMethod m : methods) {
+				prefetch.execute(m.specTask());
 			}
 
 			initWindow();
@@ -118,10 +208,16 @@ public class StackViewGUI {
 		JPanel northPanel = new JPanel();
 		northPanel.setLayout(new BorderLayout());
 		northPanel.add(options);
+		JPanel openPanel = new JPanel();
+		JButton openTrace = new JButton("Open Trace");
+		openPanel.add(openTrace);
 		JButton open = new JButton("Open");
-		northPanel.add(open, BorderLayout.EAST);
+		openPanel.add(open);
+		northPanel.add(openPanel, BorderLayout.EAST);
+		openTrace.addActionListener(e -> openTrace());
 		open.addActionListener(e -> {
 			frame.setVisible(false);
+			prefetch.shutdownNow();
 			new Thread(() -> {
 				try {
 					new StackViewGUI(this.open);
@@ -153,16 +249,73 @@ public class StackViewGUI {
 	}
 
 	private void showSimulate(ClassMethod cm) {
-		SimulateView view = new SimulateView(cm);
+		InstructionSpec spec;
+		try {
+			spec = cm.spec();
+		} catch (InterruptedException | ExecutionException e) {
+			Throwable cause = e.getCause() != null ? e.getCause() : e;
+			center.removeAll();
+			center.add(new JLabel("Failed to read method: " + cause), BorderLayout.CENTER);
+			frame.revalidate();
+			return;
+		}
+		SimulateView view = new SimulateView(cm, spec);
 		center.removeAll();
 		center.add(view, BorderLayout.CENTER);
 		frame.revalidate();
 	}
 
+	/**
+	 * Opens a trace recorded by the CLI of a method of the open class and shows it step by step.
+	 */
+	private void openTrace() {
+		JFileChooser fc = new JFileChooser(open.getAbsoluteFile().getParentFile());
+		fc.setFileFilter(new FileNameExtensionFilter("Simulation traces", "svtrace"));
+		if (fc.showOpenDialog(frame) != JFileChooser.APPROVE_OPTION) {
+			return;
+		}
+		SimulationTrace trace;
+		try {
+			trace = new SimulationTrace(fc.getSelectedFile().toPath());
+		} catch (IOException e) {
+			JOptionPane.showMessageDialog(frame, e.getMessage(), "Failed to open trace", JOptionPane.ERROR_MESSAGE);
+			return;
+		}
+		for (ClassMethod cm : methods) {
+			if (trace.owner.equals(className) && cm.method.name.equals(trace.name) && cm.method.desc.equals(trace.descriptor)) {
+				try {
+					SimulateView view = new SimulateView(cm, cm.spec(), trace);
+					center.removeAll();
+					center.add(view, BorderLayout.CENTER);
+					frame.revalidate();
+				} catch (Exception e) {
+					closeTrace(trace);
+					Throwable cause = e.getCause() != null ? e.getCause() : e;
+					JOptionPane.showMessageDialog(frame, cause.toString(), "Failed to open trace", JOptionPane.ERROR_MESSAGE);
+				}
+				return;
+			}
+		}
+		closeTrace(trace);
+		JOptionPane.showMessageDialog(frame, "The trace is of " + trace.owner + "." + trace.name + trace.descriptor + ", which is not a method of " + className + ".",
+				"Failed to open trace", JOptionPane.ERROR_MESSAGE);
+	}
+
+	void closeTrace(SimulationTrace trace) {
+		try {
+			trace.close();
+		} catch (IOException e) {
+			JOptionPane.showMessageDialog(frame, e.toString(), "Failed to close trace", JOptionPane.ERROR_MESSAGE);
+		}
+	}
+
 	class SimulateView extends JPanel {
 
 		ClassMethod classMethod;
+		InstructionSpec spec;
 		Simulator sim;
+		// What the renderer draws. This is sim, except during a fast forward when it is the latest snapshot from the worker.
+		Simulator shown;
 		JPanel buttons = new JPanel() {
 
 			protected void paintComponent(Graphics g1) {
@@ -171,8 +324,7 @@ public class StackViewGUI {
 			}
 		};
 		StateRenderer render;
-		List<Simulator> undoStack = new ArrayList<>();
-		int undoIndex;
+		UndoJournal undoJournal;
 
 		JButton nextButton = new JButton("Next");
 
@@ -182,15 +334,33 @@ public class StackViewGUI {
 
 		JButton fastForwardButton = new JButton("Fast Forward");
 		JComboBox<String> fastForwardDropdown = new JComboBox<>();
+		JProgressBar fastForwardProgress = new JProgressBar(0, 100);
+		// Why the last fast forward stopped, until the next one starts.
+		JLabel fastForwardStatus = new JLabel();
+		FastForward fastForward;
 
 		JButton throwButton = new JButton("Throw");
 		JComboBox<String> throwDropdown = new JComboBox<>();
 
 		JCheckBox history = new JCheckBox("History", true);
 
-		SimulateView(ClassMethod cm) {
+		// Set when showing a recorded trace instead of simulating, the only control is then the step shown.
+		SimulationTrace trace;
+		JSpinner traceStep;
+		JSlider traceSlider;
+		JLabel traceState = new JLabel();
+		boolean movingSlider;
+
+		SimulateView(ClassMethod cm, InstructionSpec spec) {
+			this(cm, spec, null);
+		}
+
+		SimulateView(ClassMethod cm, InstructionSpec spec, SimulationTrace trace) {
 			classMethod = cm;
-			sim = new Simulator(cm.spec);
+			this.spec = spec;
+			this.trace = trace;
+			sim = trace == null ? new Simulator(spec) : trace.stateAt(0, spec);
+			shown = sim;
 			setLayout(new BorderLayout());
 			buttons.setLayout(new FlowLayout(FlowLayout.LEADING));
 			JPanel bottomPanel = new JPanel();
@@ -199,6 +369,10 @@ public class StackViewGUI {
 			this.add(bottomPanel, BorderLayout.SOUTH);
 			render = new StateRenderer();
 			this.add(render, BorderLayout.CENTER);
+			if (trace != null) {
+				addTraceControls(bottomPanel);
+				return;
+			}
 
 			nextButton.addActionListener(e -> {
 				stepForward();
@@ -226,38 +400,37 @@ public class StackViewGUI {
 			});
 
 			fastForwardButton.addActionListener(e -> {
-				long start = System.currentTimeMillis();
-				int steps = 0;
-				while (!sim.state.done) {
-					stepForward();
-					steps++;
-					if (sim.state == State.JUMP) {
-						if (sim.getExpectedJumpTarget() == null) {
-							break;
-						}
-					}
-					if (sim.instruction - 1 >= 0 && classMethod.spec.alters.get(sim.instruction - 1).node instanceof LabelNode l) {
-						if (classMethod.spec.labelNames.get(l.getLabel()).equals(fastForwardDropdown.getSelectedItem())) {
-							break;
-						}
-					}
-					if (System.currentTimeMillis() - start > 100) {
-						break;
-					}
+				if (fastForward != null) {
+					fastForward.stop();
+					return;
 				}
-				System.out.println("Fast forwarded " + steps + " in " + (System.currentTimeMillis() - start) + " ms.");
-				saveUndo();
-				updateButtons();
+				if (sim.state == State.INIT) {
+					saveUndo();
+					sim.initLocals();
+				}
+				fastForward = new FastForward((String) fastForwardDropdown.getSelectedItem(), history.isSelected());
+				setControlsEnabled(false);
+				fastForwardButton.setText("Cancel");
+				fastForwardProgress.setValue(0);
+				fastForwardProgress.setString("0 steps");
+				fastForwardProgress.setVisible(true);
+				fastForwardStatus.setText("");
+				fastForward.execute();
 			});
-			for (var alter : classMethod.spec.alters) {
+			for (var alter : spec.alters) {
 				if (alter.node instanceof LabelNode l) {
-					fastForwardDropdown.addItem(classMethod.spec.labelNames.get(l.getLabel()));
+					fastForwardDropdown.addItem(spec.labelNames.get(l.getLabel()));
 				}
 			}
 
 			rightPanel.setLayout(new FlowLayout(FlowLayout.TRAILING));
 
+			fastForwardProgress.setStringPainted(true);
+			fastForwardProgress.setVisible(false);
+
 			rightPanel.add(history);
+			rightPanel.add(fastForwardStatus);
+			rightPanel.add(fastForwardProgress);
 			rightPanel.add(fastForwardButton);
 			rightPanel.add(fastForwardDropdown);
 			rightPanel.add(throwButton);
@@ -271,60 +444,232 @@ public class StackViewGUI {
 		}
 
 		private void stepForward() {
-			if (sim.state == State.JUMP) {
-				if (sim.getExpectedJumpTarget() != null) {
-					jump(sim.getExpectedJumpTarget().orElse(null));
-				}
-			}
 			if (sim.state == State.INIT) {
 				saveUndo();
 				sim.initLocals();
 			}
-			if (sim.state == State.POP) {
-				sim.performPops();
+			step(sim, history.isSelected());
+		}
+
+		private void jump(Label l) {
+			StackViewGUI.jump(sim, l, history.isSelected());
+		}
+
+		public void removeNotify() {
+			super.removeNotify();
+			if (fastForward != null) {
+				fastForward.stop();
 			}
-			if (sim.state == State.PUSH) {
-				sim.performPushes();
+			if (trace != null) {
+				closeTrace(trace);
 			}
 		}
 
-		private void jump(Label l) {
-			sim.performJump(l);
-			if (!sim.state.done && sim.getInstruction().node instanceof LabelNode) {
-				jump(null);
-			} else if (!history.isSelected()) {
-				sim.purgeHistory();
+		private void addTraceControls(JPanel bottomPanel) {
+			long last = trace.getSteps() - 1;
+			// A slider only holds an int, so on longer traces each notch covers several steps.
+			int notches = (int) Math.min(last, 1_000_000);
+			traceSlider = new JSlider(0, notches, 0);
+			traceStep = new JSpinner(new SpinnerNumberModel(Long.valueOf(0), Long.valueOf(0), Long.valueOf(last), Long.valueOf(1)));
+			traceStep.addChangeListener(e -> showStep((Long) traceStep.getValue()));
+			traceSlider.addChangeListener(e -> {
+				if (!movingSlider && notches > 0) {
+					traceStep.setValue(traceSlider.getValue() * last / notches);
+				}
+			});
+
+			JButton first = new JButton("First");
+			first.addActionListener(e -> traceStep.setValue(0L));
+			JButton previous = new JButton("Previous");
+			previous.addActionListener(e -> traceStep.setValue(Math.max(0, (Long) traceStep.getValue() - 1)));
+			JButton next = new JButton("Next");
+			next.addActionListener(e -> traceStep.setValue(Math.min(last, (Long) traceStep.getValue() + 1)));
+			JButton end = new JButton("Last");
+			end.addActionListener(e -> traceStep.setValue(last));
+
+			buttons.add(first);
+			buttons.add(previous);
+			buttons.add(next);
+			buttons.add(end);
+			buttons.add(new JLabel("Step"));
+			buttons.add(traceStep);
+			buttons.add(new JLabel("of " + (last + 1)));
+			buttons.add(traceState);
+			bottomPanel.add(traceSlider, BorderLayout.CENTER);
+			showStep(0);
+		}
+
+		private void showStep(long step) {
+			try {
+				sim = trace.stateAt(step, spec);
+			} catch (RuntimeException e) {
+				traceState.setText("Failed to read step " + step + ": " + e.getMessage());
+				return;
+			}
+			shown = sim;
+			traceState.setText(switch (sim.state) {
+				case FINISHED -> "Simulation complete.";
+				case ERRORED -> sim.errorMessage;
+				default -> sim.state + " at instruction " + sim.instruction;
+			});
+			long last = trace.getSteps() - 1;
+			if (last > 0) {
+				movingSlider = true;
+				traceSlider.setValue((int) (step * traceSlider.getMaximum() / last));
+				movingSlider = false;
+			}
+			render.repaint();
+		}
+
+		private void setControlsEnabled(boolean enabled) {
+			for (var panel : List.of(buttons, rightPanel)) {
+				for (var c : panel.getComponents()) {
+					if (c != fastForwardButton) {
+						c.setEnabled(enabled);
+					}
+				}
 			}
 		}
 
+		/**
+		 * Runs a copy of the simulator until it reaches the selected label, a branch it cannot resolve, a repeated state or the budget, drawing a
+		 * snapshot of the copy at most fastForwardFps times a second. The copy replaces sim once it stops.
+		 */
+		class FastForward extends SwingWorker<String, Snapshot> {
+
+			// Visited states are forgotten past this many. A loop that repeats within fewer iterations is still caught.
+			static final int MAX_VISITED = 100_000;
+
+			final Simulator run = new Simulator(sim);
+			final String target;
+			final boolean keepHistory;
+			volatile boolean stopped;
+			long start;
+			long steps;
+
+			FastForward(String target, boolean keepHistory) {
+				this.target = target;
+				this.keepHistory = keepHistory;
+			}
+
+			void stop() {
+				stopped = true;
+			}
+
+			protected String doInBackground() {
+				start = System.nanoTime();
+				long frame = 1_000_000_000L / Math.max(1, fastForwardFps);
+				long nextFrame = start + frame;
+				// Any repeating run of states contains a backward jump, so states are only remembered where one lands. Only the hash is kept,
+				// the full state is copied once its hash has been seen before and a state is repeated when that copy is seen again.
+				Set<Integer> visitedHashes = new HashSet<>();
+				Set<Simulator.StateKey> visited = new HashSet<>();
+				while (!run.state.done) {
+					int from = run.state == Simulator.State.JUMP ? run.instruction : -1;
+					step(run, keepHistory);
+					steps++;
+					if (run.instruction <= from) {
+						if (visitedHashes.size() >= MAX_VISITED) {
+							visitedHashes.clear();
+							visited.clear();
+						}
+						if (!visitedHashes.add(run.stateHash()) && !visited.add(run.stateKey())) {
+							return "Fast forward reached a repeated state.";
+						}
+					}
+					if (run.state == Simulator.State.JUMP) {
+						if (run.getExpectedJumpTarget() == null) {
+							break;
+						}
+					}
+					if (run.instruction - 1 >= 0 && spec.alters.get(run.instruction - 1).node instanceof LabelNode l) {
+						if (spec.labelNames.get(l.getLabel()).equals(target)) {
+							break;
+						}
+					}
+					if (stopped) {
+						return "Fast forward cancelled.";
+					}
+					if (steps >= fastForwardMaxSteps) {
+						return "Fast forward reached the budget of " + fastForwardMaxSteps + " steps.";
+					}
+					long now = System.nanoTime();
+					if (now - start > fastForwardMaxMillis * 1_000_000) {
+						return "Fast forward reached the budget of " + fastForwardMaxMillis + " ms.";
+					}
+					if (now >= nextFrame) {
+						nextFrame = now + frame;
+						int percent = (int) Math.max(steps * 100 / fastForwardMaxSteps, (now - start) / 10_000 / fastForwardMaxMillis);
+						// The copy is copy-on-write, so later steps of run never change what it shows.
+						publish(new Snapshot(new Simulator(run), steps, percent));
+					}
+				}
+				return null;
+			}
+
+			protected void process(List<Snapshot> snapshots) {
+				Snapshot last = snapshots.get(snapshots.size() - 1);
+				if (fastForward != this) {
+					return;
+				}
+				shown = last.sim();
+				fastForwardProgress.setValue(last.percent());
+				fastForwardProgress.setString(last.steps() + " steps");
+				render.repaint();
+			}
+
+			protected void done() {
+				String message;
+				Throwable failure = null;
+				try {
+					message = get();
+				} catch (InterruptedException | ExecutionException e) {
+					failure = e instanceof ExecutionException ? e.getCause() : e;
+					message = "Fast forward failed.";
+				}
+				String summary = "Fast forwarded " + steps + " steps in " + (System.nanoTime() - start) / 1_000_000 + " ms.";
+				fastForwardStatus.setText(message == null ? summary : message + " " + summary);
+				sim.become(run);
+				shown = sim;
+				fastForward = null;
+				fastForwardButton.setText("Fast Forward");
+				fastForwardProgress.setVisible(false);
+				setControlsEnabled(true);
+				saveUndo();
+				updateButtons();
+				if (failure != null) {
+					JOptionPane.showMessageDialog(SimulateView.this, failure.toString(), "Fast forward failed", JOptionPane.ERROR_MESSAGE);
+				}
+			}
+
+		}
+
 		private void saveUndo() {
-			while (undoIndex < undoStack.size() - 1) {
-				undoStack.removeLast();
+			if (undoJournal == null) {
+				undoJournal = new UndoJournal(sim);
+			} else {
+				undoJournal.record(sim);
 			}
-			undoStack.add(new Simulator(sim));
-			undoIndex = undoStack.size() - 1;
 		}
 
 		private void undo() {
 			if (canUndo()) {
-				undoIndex--;
-				sim.become(undoStack.get(undoIndex));
+				undoJournal.undo(sim);
 			}
 		}
 
 		private void redo() {
 			if (canRedo()) {
-				undoIndex++;
-				sim.become(undoStack.get(undoIndex));
+				undoJournal.redo(sim);
 			}
 		}
 
 		private boolean canUndo() {
-			return undoIndex > 0;
+			return undoJournal != null && undoJournal.canUndo();
 		}
 
 		private boolean canRedo() {
-			return undoIndex < undoStack.size() - 1;
+			return undoJournal != null && undoJournal.canRedo();
 		}
 
 		private void updateButtons() {
@@ -377,12 +722,12 @@ public class StackViewGUI {
 						if (l == null) {
 							jumpTargets.addItem("Next instruction");
 						} else {
-							jumpTargets.addItem(classMethod.spec.labelNames.get(l));
+							jumpTargets.addItem(spec.labelNames.get(l));
 						}
 					}
 					if (sim.getInstruction().node.getOpcode() != Opcodes.ATHROW) {
 						for (TryCatchBlockNode tryCatch : catches) {
-							jumpTargets.addItem("Catch " + tryCatch.type + ": " + classMethod.spec.labelNames.get(tryCatch.handler.getLabel()));
+							jumpTargets.addItem("Catch " + tryCatch.type + ": " + spec.labelNames.get(tryCatch.handler.getLabel()));
 							jumps.add(tryCatch.handler.getLabel());
 
 						}
@@ -424,7 +769,7 @@ public class StackViewGUI {
 
 			throwDropdown.removeAllItems();
 			for (var tryCatch : sim.getActiveCatches()) {
-				throwDropdown.addItem(classMethod.spec.labelNames.get(tryCatch.handler.getLabel()) + " " + tryCatch.type);
+				throwDropdown.addItem(spec.labelNames.get(tryCatch.handler.getLabel()) + " " + tryCatch.type);
 			}
 			throwButton.setEnabled(throwDropdown.getItemCount() > 0);
 
@@ -441,7 +786,7 @@ public class StackViewGUI {
 				this.addMouseMotionListener(this);
 
 				int i = 0;
-				for (var tryCatch : classMethod.spec.tryCatchBlocks) {
+				for (var tryCatch : spec.tryCatchBlocks) {
 					i++;
 					{
 						Label l = tryCatch.start.getLabel();
@@ -462,8 +807,19 @@ public class StackViewGUI {
 						tryCatchLabels.put(l, already);
 					}
 				}
+				var alters = spec.alters;
+				lines = new String[alters.size()];
+				compressedLines = new String[alters.size()];
+				for (int j = 0; j < lines.length; j++) {
+					lines[j] = decorate(alters.get(j), spec.toString(j));
+					compressedLines[j] = decorate(alters.get(j), spec.compressedString(j));
+				}
 			}
 
+			// The line drawn for each instruction, and the same with class names shortened for when it does not fit.
+			String[] lines;
+			String[] compressedLines;
+
 			double lineOffset;
 			int mouseX;
 			int mouseY;
@@ -528,22 +884,21 @@ public class StackViewGUI {
 
 				int y = fm.getAscent();
 
-				for (int i = 0; i < sim.locals.count; i++) {
+				for (int i = 0; i < shown.locals.count; i++) {
 					g.setColor(Color.black);
 					g.drawRect(0, y - fm.getAscent(), width, fm.getHeight());
-					if (i < sim.locals.entries.length) {
-						String name = sim.getLocalName(i);
-						String end = sim.locals.entries[i].getKnownValue() == null ? "" : sim.locals.entries[i].getKnownValue();
+					if (i < shown.locals.count) {
+						String name = shown.getLocalName(i);
+						String end = shown.locals.getEntry(i).getKnownValue() == null ? "" : shown.locals.getEntry(i).getKnownValue();
 						if (name != null) {
-							g.drawString("Local index " + i + ": " + sim.locals.entries[i].getType() + " (" + name + ") " + end, 1, y);
+							g.drawString("Local index " + i + ": " + shown.locals.getEntry(i).getType() + " (" + name + ") " + end, 1, y);
 						} else {
-							g.drawString("Local index " + i + ": " + sim.locals.entries[i].getType() + " " + end, 1, y);
+							g.drawString("Local index " + i + ": " + shown.locals.getEntry(i).getType() + " " + end, 1, y);
 						}
 					}
 					if (i == this.hoverLocalsIndex) {
-						var localEntries = sim.locals.entries;
-						if (localEntries.length > i) {
-							var history = localEntries[i].getSourceHistory();
+						if (shown.locals.count > i) {
+							var history = shown.locals.getEntry(i).getSourceHistory();
 							g.translate(-4 * width, 0d);
 							g.setColor(new Color(0, 0, 0, 128));
 							renderSource(g, history, 4 * width, y - fm.getAscent() / 2, 0);
@@ -572,16 +927,16 @@ public class StackViewGUI {
 
 				int y = fm.getAscent();
 
-				for (int i = 0; i < sim.stack.max; i++) {
+				for (int i = 0; i < shown.stack.max; i++) {
 					g.setColor(Color.black);
 					g.drawRect(0, y - fm.getAscent(), width, fm.getHeight());
-					if (i < sim.stack.entries.size()) {
-						String end = sim.stack.entries.get(i).getKnownValue() == null ? "" : sim.stack.entries.get(i).getKnownValue();
+					if (i < shown.stack.entries.size()) {
+						String end = shown.stack.entries.get(i).getKnownValue() == null ? "" : shown.stack.entries.get(i).getKnownValue();
 
-						g.drawString(sim.stack.entries.get(i).getType().toString() + " " + end, 1, y);
+						g.drawString(shown.stack.entries.get(i).getType().toString() + " " + end, 1, y);
 					}
 					if (i == this.hoverStackIndex) {
-						var stackEntries = sim.stack.entries;
+						var stackEntries = shown.stack.entries;
 						if (stackEntries.size() > i) {
 							var history = stackEntries.get(i).getSourceHistory();
 							g.translate(-5 * width, 0d);
@@ -612,7 +967,7 @@ public class StackViewGUI {
 						g.setColor(new Color(red, 0, 255, 128));
 					}
 
-					String draw = instructionString(classMethod.spec.alters.get(last), fm, getWidth() / 6 * 4);
+					String draw = instructionString(last, fm, getWidth() / 6 * 4);
 					int dx = fm.stringWidth(draw);
 					int dy = (int) ((last - lineOffset + 0.5) * fm.getHeight());
 					if (first) {
@@ -635,12 +990,11 @@ public class StackViewGUI {
 
 			Map<Label, String> tryCatchLabels = new HashMap<>();
 
-			private String instructionString(StackAlter alter, FontMetrics fm, int maxWidth) {
-				String draw = classMethod.spec.toString(alter.node);
+			private String decorate(StackAlter alter, String draw) {
 				if (alter.node instanceof LabelNode ln) {
 					Label l = ln.getLabel();
-					if (classMethod.spec.lineNumbers.containsKey(l)) {
-						draw += ": Line " + classMethod.spec.lineNumbers.get(l);
+					if (spec.lineNumbers.containsKey(l)) {
+						draw += ": Line " + spec.lineNumbers.get(l);
 					}
 					if (tryCatchLabels.containsKey(l)) {
 						draw += tryCatchLabels.get(l);
@@ -648,10 +1002,15 @@ public class StackViewGUI {
 				} else {
 					draw = "  " + draw;
 				}
+				return draw;
+			}
+
+			private String instructionString(int index, FontMetrics fm, int maxWidth) {
+				String draw = lines[index];
 
 				//Compress type names.
-				if (fm.stringWidth(draw) > maxWidth && !draw.contains("\"")) {
-					draw = draw.replaceAll("L[a-zA-Z\\/$]*;", "L...;");
+				if (fm.stringWidth(draw) > maxWidth) {
+					draw = compressedLines[index];
 				}
 				return draw;
 			}
@@ -667,16 +1026,15 @@ public class StackViewGUI {
 				g.drawRect(0, 0, width, getHeight());
 
 				int y = fm.getAscent();
-				var alters = classMethod.spec.alters;
+				var alters = spec.alters;
 				lineOffset = Math.min(Math.max(0, lineOffset), Math.max(0, alters.size() - getHeight() / fm.getHeight()));
 				int index = (int) lineOffset;
 				y += (index - lineOffset) * fm.getHeight();
 				while (index < alters.size()) {
-					var alter = alters.get(index);
-					if (index == sim.instruction) {
-						if (sim.state == State.FINISHED) {
+					if (index == shown.instruction) {
+						if (shown.state == State.FINISHED) {
 							g.setColor(Color.green);
-						} else if (sim.state == State.ERRORED) {
+						} else if (shown.state == State.ERRORED) {
 							g.setColor(Color.red);
 						} else {
 							g.setColor(Color.blue);
@@ -685,7 +1043,7 @@ public class StackViewGUI {
 						g.setColor(Color.black);
 					}
 
-					String draw = instructionString(alter, fm, width);
+					String draw = instructionString(index, fm, width);
 
 					g.drawString(draw, 0, y);
 					y += fm.getHeight();
@@ -707,7 +1065,7 @@ public class StackViewGUI {
 			private void hoverStack() {
 				int y = fontHeight;
 
-				for (int i = 0; i < sim.stack.max; i++) {
+				for (int i = 0; i < shown.stack.max; i++) {
 					if (mouseY < y) {
 						hoverStackIndex = i;
 						repaint();
@@ -723,7 +1081,7 @@ public class StackViewGUI {
 			private void hoverLocals() {
 				int y = fontHeight;
 
-				for (int i = 0; i < sim.locals.count; i++) {
+				for (int i = 0; i < shown.locals.count; i++) {
 					if (mouseY < y) {
 						hoverLocalsIndex = i;
 						repaint();
@@ -742,10 +1100,10 @@ public class StackViewGUI {
 
 				if (mouseX >= width - 7) {
 					draggingScroll = true;
-					int scrollStart = (int) (getHeight() / (classMethod.spec.alters.size() / lineOffset));
-					int scrollEnd = (int) (getHeight() / ((double) classMethod.spec.alters.size() / scrollBottom));
+					int scrollStart = (int) (getHeight() / (spec.alters.size() / lineOffset));
+					int scrollEnd = (int) (getHeight() / ((double) spec.alters.size() / scrollBottom));
 					if (mouseY > scrollEnd || mouseY < scrollStart) {
-						lineOffset = classMethod.spec.alters.size() * (mouseY / (double) getHeight()) - (scrollBottom - lineOffset) / 2;
+						lineOffset = spec.alters.size() * (mouseY / (double) getHeight()) - (scrollBottom - lineOffset) / 2;
 					}
 					dragYoffset = mouseY - scrollStart;
 					repaint();
@@ -762,7 +1120,7 @@ public class StackViewGUI {
 				mouseY = e.getY();
 
 				if (draggingScroll) {
-					lineOffset = classMethod.spec.alters.size() * ((mouseY - dragYoffset) / (double) getHeight());
+					lineOffset = spec.alters.size() * ((mouseY - dragYoffset) / (double) getHeight());
 
 					repaint();
 				}